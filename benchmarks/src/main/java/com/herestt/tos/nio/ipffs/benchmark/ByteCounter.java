@@ -0,0 +1,28 @@
+package com.herestt.tos.nio.ipffs.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counts the bytes read by a benchmark thread.
+ *
+ * <p>JMH reports the counter next to the score, as a rate : in a throughput benchmark reported
+ * per second, the <code>bytes</code> line is the read throughput in bytes/s.</p>
+ *
+ * @author Herestt
+ *
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class ByteCounter {
+
+	public long bytes;
+
+	@Setup(Level.Iteration)
+	public void reset() {
+		bytes = 0;
+	}
+}
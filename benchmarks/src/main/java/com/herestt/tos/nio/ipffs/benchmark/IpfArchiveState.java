@@ -0,0 +1,135 @@
+package com.herestt.tos.nio.ipffs.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.herestt.tos.nio.ipffs.IpfArchiveGenerator;
+import com.herestt.tos.nio.ipffs.IpfFileSystem;
+import com.herestt.tos.nio.ipffs.IpfFileSystemProvider;
+
+/**
+ * A synthetic '.ipf' file, mounted once per trial and shared by every benchmark thread.
+ *
+ * <p>The '.ipf' file is generated by an {@link IpfArchiveGenerator} from the parameters of the trial,
+ * with a fixed seed, into the directory given by the <code>ipffs.benchmark.dir</code> system property
+ * (the temporary directory by default). It is kept there and reused by the next trials sharing the
+ * same parameters.</p>
+ *
+ * @author Herestt
+ *
+ */
+@State(Scope.Benchmark)
+public class IpfArchiveState {
+
+	private static final long SEED = 0x1BF;
+
+	@Param({ "1000", "20000" })
+	public int entryCount;
+
+	@Param({ "268435456" })
+	public long totalSize;
+
+	@Param({ "FIXED", "EXPONENTIAL" })
+	public IpfArchiveGenerator.SizeDistribution distribution;
+
+	@Param({ "MIXED", "TEXT" })
+	public IpfArchiveGenerator.Profile profile;
+
+	@Param({ "false", "true" })
+	public boolean mmap;
+
+	/** The generated '.ipf' file. */
+	public Path archive;
+
+	/** The environment the file system is mounted with. */
+	public Map<String, Object> env;
+
+	public IpfFileSystemProvider provider;
+	public IpfFileSystem fileSystem;
+
+	/** The paths of the stored files, and of their directories. */
+	public Path[] files;
+	public Path[] directories;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		archive = generate();
+		env = new HashMap<>();
+		env.put(IpfFileSystem.ENV_MMAP, mmap);
+		provider = new IpfFileSystemProvider();
+		fileSystem = provider.getOrNewFileSystem(archive, env);
+		List<Path> paths = new ArrayList<>(entryCount);
+		List<Path> dirs = new ArrayList<>();
+		try(Stream<Path> stream = Files.walk(fileSystem.getPath("/"))) {
+			stream.forEach(path -> (Files.isDirectory(path) ? dirs : paths).add(path));
+		}
+		files = paths.toArray(new Path[0]);
+		directories = dirs.toArray(new Path[0]);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		fileSystem.close();
+	}
+
+	/**
+	 * Picks a stored file at random.
+	 *
+	 * @return the path of the file.
+	 */
+	public Path randomFile() {
+		return files[ThreadLocalRandom.current().nextInt(files.length)];
+	}
+
+	/**
+	 * Picks a directory at random.
+	 *
+	 * @return the path of the directory.
+	 */
+	public Path randomDirectory() {
+		return directories[ThreadLocalRandom.current().nextInt(directories.length)];
+	}
+
+	/**
+	 * Generates the '.ipf' file of the trial, unless a previous trial already did.
+	 *
+	 * <p>The '.ipf' file is generated under a temporary name, then moved into place once complete.</p>
+	 */
+	private Path generate() throws IOException {
+		Path dir = Paths.get(System.getProperty("ipffs.benchmark.dir", System.getProperty("java.io.tmpdir")));
+		Path target = dir.resolve(String.format("ipffs-%d-%d-%s-%s.ipf", entryCount, totalSize, distribution, profile));
+		if(Files.exists(target))
+			return target;
+		Path tmp = dir.resolve(target.getFileName() + ".tmp");
+		Files.deleteIfExists(tmp);
+		try {
+			IpfArchiveGenerator generator = new IpfArchiveGenerator();
+			generator.setEntryCount(entryCount);
+			generator.setTotalSize(totalSize);
+			generator.setDistribution(distribution);
+			generator.setProfile(profile);
+			generator.setSeed(SEED);
+			generator.generate(tmp);
+			Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+		return target;
+	}
+}
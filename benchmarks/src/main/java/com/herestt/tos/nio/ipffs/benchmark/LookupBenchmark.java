@@ -0,0 +1,58 @@
+package com.herestt.tos.nio.ipffs.benchmark;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the metadata paths : attribute lookups and directory listings.
+ *
+ * @author Herestt
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LookupBenchmark {
+
+	@Benchmark
+	public long readAttributes(IpfArchiveState state) throws IOException {
+		return Files.readAttributes(state.randomFile(), BasicFileAttributes.class).size();
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public long readAttributesParallel(IpfArchiveState state) throws IOException {
+		return readAttributes(state);
+	}
+
+	@Benchmark
+	public int listDirectory(IpfArchiveState state) throws IOException {
+		int count = 0;
+		try(DirectoryStream<Path> stream = Files.newDirectoryStream(state.randomDirectory())) {
+			for(Path path : stream)
+				count += path.getNameCount();
+		}
+		return count;
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public int listDirectoryParallel(IpfArchiveState state) throws IOException {
+		return listDirectory(state);
+	}
+}
@@ -0,0 +1,60 @@
+package com.herestt.tos.nio.ipffs.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.herestt.tos.nio.ipffs.IpfFileSystem;
+import com.herestt.tos.nio.ipffs.IpfFileSystemProvider;
+
+/**
+ * Measures the mounting of an '.ipf' file, from the opening of the file system to its closing.
+ *
+ * <p>Each benchmark thread mounts through its own provider, so that the threads don't share
+ * a single mount.</p>
+ *
+ * @author Herestt
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MountBenchmark {
+
+	@State(Scope.Thread)
+	public static class ProviderState {
+
+		public IpfFileSystemProvider provider;
+
+		@Setup
+		public void setUp() {
+			provider = new IpfFileSystemProvider();
+		}
+	}
+
+	@Benchmark
+	public boolean mount(IpfArchiveState state, ProviderState local) throws IOException {
+		try(IpfFileSystem ipffs = local.provider.getOrNewFileSystem(state.archive, state.env)) {
+			return ipffs.isOpen();
+		}
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public boolean mountParallel(IpfArchiveState state, ProviderState local) throws IOException {
+		return mount(state, local);
+	}
+}
@@ -0,0 +1,126 @@
+package com.herestt.tos.nio.ipffs.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the content paths : extraction through {@link Files#copy(Path, Path, java.nio.file.CopyOption...)},
+ * and sequential or random reads through {@link Files#newByteChannel(Path, java.nio.file.OpenOption...)}.
+ *
+ * <p>Besides the count of operations, each benchmark reports the count of inflated bytes through
+ * a {@link ByteCounter}.</p>
+ *
+ * @author Herestt
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadBenchmark {
+
+	@State(Scope.Thread)
+	public static class ReadState {
+
+		/** The size of the buffer the contents are read through. */
+		@Param({ "8192" })
+		public int bufferSize;
+
+		public ByteBuffer buffer;
+
+		/** The file extractions are written to, in the default file system. */
+		public Path target;
+
+		@Setup(Level.Trial)
+		public void setUp() throws IOException {
+			buffer = ByteBuffer.allocate(bufferSize);
+			target = Files.createTempFile("ipffs-", ".ies");
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			Files.deleteIfExists(target);
+		}
+	}
+
+	@Benchmark
+	public long copy(IpfArchiveState state, ReadState local, ByteCounter counter) throws IOException {
+		Files.copy(state.randomFile(), local.target, StandardCopyOption.REPLACE_EXISTING);
+		long size = Files.size(local.target);
+		counter.bytes += size;
+		return size;
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public long copyParallel(IpfArchiveState state, ReadState local, ByteCounter counter) throws IOException {
+		return copy(state, local, counter);
+	}
+
+	@Benchmark
+	public long sequentialRead(IpfArchiveState state, ReadState local, ByteCounter counter) throws IOException {
+		long count = 0;
+		local.buffer.clear();
+		try(SeekableByteChannel sbc = Files.newByteChannel(state.randomFile())) {
+			int read;
+			while((read = sbc.read(local.buffer)) >= 0) {
+				count += read;
+				local.buffer.clear();
+			}
+		}
+		counter.bytes += count;
+		return count;
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public long sequentialReadParallel(IpfArchiveState state, ReadState local, ByteCounter counter) throws IOException {
+		return sequentialRead(state, local, counter);
+	}
+
+	/**
+	 * Reads one buffer at a random position of a random file.
+	 */
+	@Benchmark
+	public long randomRead(IpfArchiveState state, ReadState local, ByteCounter counter) throws IOException {
+		try(SeekableByteChannel sbc = Files.newByteChannel(state.randomFile())) {
+			long size = sbc.size();
+			sbc.position(size <= local.bufferSize ? 0 : ThreadLocalRandom.current().nextLong(size - local.bufferSize));
+			local.buffer.clear();
+			int count = 0;
+			int read;
+			while(local.buffer.hasRemaining() && (read = sbc.read(local.buffer)) >= 0)
+				count += read;
+			counter.bytes += count;
+			return count;
+		}
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public long randomReadParallel(IpfArchiveState state, ReadState local, ByteCounter counter) throws IOException {
+		return randomRead(state, local, counter);
+	}
+}
@@ -0,0 +1,424 @@
+package com.herestt.tos.nio.ipffs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Generates valid '.ipf' files filled with synthetic content, for tests and benchmarks.
+ *
+ * <p>The generated files are described by :
+ * <ul>
+ * 		<li>the count of files and the total size of their inflated content, spread over the files
+ * 			following a {@link SizeDistribution}.</li>
+ * 		<li>the distribution of the depth of their paths, as relative weights : the weight at index
+ * 			<code>d</code> is the share of the files stored under <code>d</code> directories.</li>
+ * 		<li>the {@link Profile} of their content, which drives how well it compresses.</li>
+ * 		<li>a seed : a generator always writes the same '.ipf' file for the same settings.</li>
+ * </ul></p>
+ *
+ * <p>The content of a file is never held by memory as a whole once it exceeds 1MB : it is
+ * streamed through the deflater block by block, so that '.ipf' files of several GB are generated
+ * within a bounded memory. Smaller contents are generated and deflated in parallel on the executor,
+ * then written in order.</p>
+ *
+ * <p>As any '.ipf' file, the generated one can't hold more than 65535 files, nor exceed 4GB once
+ * compressed.</p>
+ *
+ * @author Herestt
+ *
+ */
+public class IpfArchiveGenerator {
+
+	/**
+	 * The kinds of synthetic content.
+	 */
+	public enum Profile {
+		/** Random bytes, which don't compress at all, as in already compressed images or sounds. */
+		RANDOM,
+		/** Text built from a small vocabulary, as in the game's '.ies' and '.xml' files. */
+		TEXT,
+		/** Zeros sprinkled with random bytes, which compress very well. */
+		SPARSE,
+		/** A random choice between text, for two thirds of the files, and random bytes. */
+		MIXED
+	}
+
+	/**
+	 * The ways the total size is spread over the files.
+	 */
+	public enum SizeDistribution {
+		/** Every file has the same size. */
+		FIXED,
+		/** An exponential distribution : many small files and a few large ones, as in the game's '.ipf' files. */
+		EXPONENTIAL
+	}
+
+	/** The size under which contents are generated and deflated in memory, in parallel. */
+	private static final int MEMORY_THRESHOLD = 1 << 20;
+
+	/** The maximum count of contents deflated ahead of their writing. */
+	private static final int WINDOW = 64;
+
+	/** The size of the blocks streamed contents are generated by. */
+	private static final int BLOCK_SIZE = 64 * 1024;
+
+	/** The count of directory names available at each depth. */
+	private static final int FANOUT = 8;
+
+	private static final byte[][] WORDS = words("<Class ", "ClassID=\"", "ClassName=\"", "Name=\"",
+			"\"/>", "\r\n", "Icon_", "Skill_", "Monster_", "Item_", "Quest_", "true", "false", "0", "1",
+			"2", "3", "4", "5", "6", "7", "8", "9", " ", "\t");
+
+	private int entryCount = 1000;
+	private long totalSize = 64L << 20;
+	private double[] depthWeights = { 1, 4, 8, 4, 1 };
+	private Profile profile = Profile.MIXED;
+	private SizeDistribution distribution = SizeDistribution.EXPONENTIAL;
+	private long seed = 0;
+	private int level = Deflater.BEST_SPEED;
+	private Executor executor = ForkJoinPool.commonPool();
+	private long baseRevision = 0;
+	private long revision = 0;
+
+	public IpfArchiveGenerator() {}
+
+	/**
+	 * Generates an '.ipf' file.
+	 *
+	 * @param target The path of the '.ipf' file, which mustn't exist.
+	 *
+	 * @throws IOException - if an I/O error occurs; the '.ipf' file is then deleted.
+	 */
+	public void generate(Path target) throws IOException {
+		long[] sizes = sizes();
+		String fsName = target.getFileName().toString();
+		IpfFileTable table = new IpfFileTable(entryCount);
+		Deque<CompletableFuture<Generated>> pending = new ArrayDeque<>();
+		boolean finished = false;
+		IpfArchiveWriter writer = IpfArchiveWriter.create(target);
+		try {
+			writer.setLevel(level);
+			writer.setRevisions(baseRevision, revision);
+			for(int i = 0; i < entryCount; i++) {
+				SplittableRandom random = random(i);
+				Profile kind = kind(random);
+				String path = path(random, i, kind);
+				long size = sizes[i];
+				if(size < MEMORY_THRESHOLD) {
+					if(pending.size() == WINDOW)
+						write(writer, table, fsName, pending.poll());
+					pending.add(CompletableFuture.supplyAsync(() -> generate(random, kind, path, (int) size), executor));
+					continue;
+				}
+				while(!pending.isEmpty())
+					write(writer, table, fsName, pending.poll());
+				table.put(writer.deflate(path, fsName, new ContentChannel(random, kind, size)));
+			}
+			while(!pending.isEmpty())
+				write(writer, table, fsName, pending.poll());
+			writer.finish(table);
+			finished = true;
+		} finally {
+			for(CompletableFuture<Generated> future : pending)
+				future.cancel(false);
+			writer.close();
+			if(!finished)
+				Files.deleteIfExists(target);
+		}
+	}
+
+	private void write(IpfArchiveWriter writer, IpfFileTable table, String fsName,
+			CompletableFuture<Generated> future) throws IOException {
+		Generated generated;
+		try {
+			generated = future.join();
+		} catch (CompletionException e) {
+			throw new IOException(e.getCause());
+		}
+		table.put(writer.write(generated.path, fsName, generated.compressed, generated.crc, generated.size));
+	}
+
+	private Generated generate(SplittableRandom random, Profile kind, String path, int size) {
+		ByteBuffer content = ByteBuffer.allocate(size);
+		fill(random, kind, content);
+		content.flip();
+		CRC32 crc = new CRC32();
+		crc.update(content.duplicate());
+		return new Generated(path, IpfArchiveWriter.deflate(content, level), crc.getValue(), size);
+	}
+
+	/**
+	 * Spreads the total size over the files, following the size distribution.
+	 */
+	private long[] sizes() {
+		SplittableRandom random = new SplittableRandom(seed);
+		double[] weights = new double[entryCount];
+		double sum = 0;
+		for(int i = 0; i < entryCount; i++)
+			sum += weights[i] = distribution == SizeDistribution.FIXED ? 1 : -Math.log(1 - random.nextDouble());
+		long[] sizes = new long[entryCount];
+		long remaining = totalSize;
+		for(int i = 0; i < entryCount; i++) {
+			sizes[i] = i == entryCount - 1 ? remaining : Math.min(remaining, (long) (totalSize * (weights[i] / sum)));
+			remaining -= sizes[i];
+		}
+		return sizes;
+	}
+
+	/**
+	 * Gets the random generator of a file, so that files can be generated in any order.
+	 */
+	private SplittableRandom random(int i) {
+		return new SplittableRandom(seed ^ (0x9E3779B97F4A7C15L * (i + 1)));
+	}
+
+	private Profile kind(SplittableRandom random) {
+		if(profile != Profile.MIXED)
+			return profile;
+		return random.nextInt(3) == 0 ? Profile.RANDOM : Profile.TEXT;
+	}
+
+	/**
+	 * Builds the path of a file, whose depth is drawn from the depth weights.
+	 */
+	private String path(SplittableRandom random, int i, Profile kind) {
+		double sum = 0;
+		for(double weight : depthWeights)
+			sum += weight;
+		double draw = random.nextDouble() * sum;
+		int depth = 0;
+		while(depth < depthWeights.length - 1 && (draw -= depthWeights[depth]) >= 0)
+			depth++;
+		StringBuilder builder = new StringBuilder();
+		for(int d = 0; d < depth; d++)
+			builder.append("dir").append(d).append('_').append(random.nextInt(FANOUT)).append('/');
+		builder.append(String.format("file%05d", i)).append(kind == Profile.TEXT ? ".ies" : ".dds");
+		return builder.toString();
+	}
+
+	/**
+	 * Fills a buffer, from its position to its limit, with content of the given kind.
+	 */
+	private static void fill(SplittableRandom random, Profile kind, ByteBuffer dst) {
+		switch(kind) {
+		case RANDOM:
+			while(dst.remaining() >= 8)
+				dst.putLong(random.nextLong());
+			while(dst.hasRemaining())
+				dst.put((byte) random.nextInt());
+			break;
+		case TEXT:
+			while(dst.hasRemaining()) {
+				byte[] word = WORDS[random.nextInt(WORDS.length)];
+				dst.put(word, 0, Math.min(word.length, dst.remaining()));
+			}
+			break;
+		default:
+			while(dst.hasRemaining())
+				dst.put(random.nextInt(16) == 0 ? (byte) random.nextInt() : 0);
+			break;
+		}
+	}
+
+	private static byte[][] words(String... words) {
+		byte[][] bytes = new byte[words.length][];
+		for(int i = 0; i < words.length; i++)
+			bytes[i] = words[i].getBytes(StandardCharsets.US_ASCII);
+		return bytes;
+	}
+
+	/*** Settings ***/
+
+	public int getEntryCount() {
+		return entryCount;
+	}
+
+	/**
+	 * Sets the count of files.
+	 *
+	 * @param entryCount The count of files, from 1 to 65535.
+	 */
+	public void setEntryCount(int entryCount) {
+		if(entryCount < 1 || entryCount > 0xFFFF)
+			throw new IllegalArgumentException("Invalid entry count: " + entryCount);
+		this.entryCount = entryCount;
+	}
+
+	public long getTotalSize() {
+		return totalSize;
+	}
+
+	/**
+	 * Sets the total size of the inflated content of the files.
+	 *
+	 * @param totalSize The total size, in bytes.
+	 */
+	public void setTotalSize(long totalSize) {
+		if(totalSize < 0)
+			throw new IllegalArgumentException("Invalid total size: " + totalSize);
+		this.totalSize = totalSize;
+	}
+
+	public double[] getDepthWeights() {
+		return depthWeights.clone();
+	}
+
+	/**
+	 * Sets the distribution of the depth of the paths.
+	 *
+	 * @param depthWeights The relative weight of each depth, from the root directory.
+	 */
+	public void setDepthWeights(double... depthWeights) {
+		double sum = 0;
+		for(double weight : depthWeights) {
+			if(weight < 0)
+				throw new IllegalArgumentException("Negative depth weight.");
+			sum += weight;
+		}
+		if(sum <= 0)
+			throw new IllegalArgumentException("At least one depth weight must be positive.");
+		this.depthWeights = depthWeights.clone();
+	}
+
+	public SizeDistribution getDistribution() {
+		return distribution;
+	}
+
+	/**
+	 * Sets how the total size is spread over the files.
+	 *
+	 * @param distribution The size distribution.
+	 */
+	public void setDistribution(SizeDistribution distribution) {
+		if(distribution == null)
+			throw new NullPointerException();
+		this.distribution = distribution;
+	}
+
+	public Profile getProfile() {
+		return profile;
+	}
+
+	public void setProfile(Profile profile) {
+		if(profile == null)
+			throw new NullPointerException();
+		this.profile = profile;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	/**
+	 * Sets the compression level, {@link Deflater#BEST_SPEED} by default.
+	 *
+	 * @param level The compression level, from 0 to 9.
+	 */
+	public void setLevel(int level) {
+		if((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION)
+			throw new IllegalArgumentException("Invalid compression level: " + level);
+		this.level = level;
+	}
+
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Sets the executor the small contents are generated and deflated on.
+	 *
+	 * @param executor The new executor.
+	 */
+	public void setExecutor(Executor executor) {
+		if(executor == null)
+			throw new NullPointerException();
+		this.executor = executor;
+	}
+
+	/**
+	 * Sets the revisions written into the footer.
+	 *
+	 * @param baseRevision The revision the '.ipf' file is based on.
+	 * @param revision The revision of the '.ipf' file.
+	 */
+	public void setRevisions(long baseRevision, long revision) {
+		this.baseRevision = baseRevision;
+		this.revision = revision;
+	}
+
+	/**
+	 * A channel generating a content block by block.
+	 */
+	private static class ContentChannel implements ReadableByteChannel {
+
+		private final SplittableRandom random;
+		private final Profile kind;
+		private long remaining;
+
+		private ContentChannel(SplittableRandom random, Profile kind, long size) {
+			this.random = random;
+			this.kind = kind;
+			this.remaining = size;
+		}
+
+		@Override
+		public int read(ByteBuffer dst) {
+			if(remaining == 0)
+				return -1;
+			int count = (int) Math.min(remaining, Math.min(dst.remaining(), BLOCK_SIZE));
+			ByteBuffer block = dst.slice();
+			block.limit(count);
+			fill(random, kind, block);
+			dst.position(dst.position() + count);
+			remaining -= count;
+			return count;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {}
+	}
+
+	/**
+	 * A content generated and deflated ahead of its writing.
+	 */
+	private static class Generated {
+
+		private final String path;
+		private final ByteBuffer compressed;
+		private final long crc;
+		private final long size;
+
+		private Generated(String path, ByteBuffer compressed, long crc, long size) {
+			this.path = path;
+			this.compressed = compressed;
+			this.crc = crc;
+			this.size = size;
+		}
+	}
+}
@@ -0,0 +1,343 @@
+package com.herestt.tos.nio.ipffs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes the content, the file list and the footer of an '.ipf' file.
+ *
+ * <p>Contents are appended one after another to the data region, either deflated by the writer
+ * or copied as they are when they are already compressed. Once every content has been written,
+ * {@link #finish(IpfFileTable)} writes the file list right after the data region, followed by
+ * the footer, then truncates the file.</p>
+ *
+ * <p>A writer can either create a new '.ipf' file, or append to an existing one, so that the
+ * content of the stored files is never written again. The new contents are then appended after
+ * the current end of the '.ipf' file : its file list and its footer are left untouched until
+ * {@link #finish(IpfFileTable)}, which writes the new ones after the appended contents. The former
+ * file list is left behind as unused bytes, until the '.ipf' file is repacked.</p>
+ *
+ * <p>Until the new footer is written, the former '.ipf' file is held, unchanged, by the first
+ * {@link #getOriginalSize()} bytes of the file : truncating the file to that size, as done by
+ * {@link #rollback()}, recovers it.</p>
+ *
+ * <p>As every offset and size of the format is a 32 bits value, an '.ipf' file can't exceed 4GB,
+ * and can't hold more than 65535 files.</p>
+ *
+ * @author Herestt
+ *
+ */
+public class IpfArchiveWriter implements Closeable {
+
+	/** The magic number that identifies <code>.ipf</code> files. */
+	protected static final int MAGIC_NUMBER = 0x06054B50;
+
+	private static final long MAX_OFFSET = 0xFFFFFFFFL;
+	private static final int MAX_FILE_COUNT = 0xFFFF;
+
+	/** The size of the blocks used to deflate streamed contents. */
+	private static final int BLOCK_SIZE = 64 * 1024;
+
+	private final FileChannel channel;
+
+	/** The end of the data region. */
+	private long position;
+
+	/** The size of the '.ipf' file before any content was appended, or zero for a new file. */
+	private final long originalSize;
+
+	/** The footer to write, whose counts and offsets are updated by {@link #finish(IpfFileTable)}. */
+	private final ByteBuffer footer;
+
+	/** The compression level of the deflated contents. */
+	private int level = Deflater.DEFAULT_COMPRESSION;
+
+	private IpfArchiveWriter(FileChannel channel, long position, ByteBuffer footer) {
+		this.channel = channel;
+		this.position = position;
+		this.originalSize = position;
+		this.footer = footer.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Creates a new, empty '.ipf' file.
+	 *
+	 * @param path The path of the '.ipf' file, which mustn't exist.
+	 * @return the writer.
+	 *
+	 * @throws IOException - if an I/O error occurs.
+	 */
+	protected static IpfArchiveWriter create(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		ByteBuffer footer = ByteBuffer.allocate(IpfFileStore.FOOTER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		footer.putInt(12, MAGIC_NUMBER);
+		return new IpfArchiveWriter(channel, 0, footer);
+	}
+
+	/**
+	 * Opens an existing '.ipf' file to append contents to it.
+	 *
+	 * <p>The footer is kept, its counts and offsets excepted. The contents are appended after the
+	 * current end of the file.</p>
+	 *
+	 * @param path The path of the '.ipf' file.
+	 * @return the writer.
+	 *
+	 * @throws IOException - if an I/O error occurs.
+	 */
+	protected static IpfArchiveWriter append(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			ByteBuffer footer = ByteBuffer.allocate(IpfFileStore.FOOTER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			long size = channel.size();
+			long footerOffset = size - IpfFileStore.FOOTER_SIZE;
+			while(footer.hasRemaining())
+				if(channel.read(footer, footerOffset + footer.position()) < 0)
+					throw new IOException("Truncated footer.");
+			if(footer.getInt(12) != MAGIC_NUMBER)
+				throw new IOException("Not an '.ipf' file: " + path);
+			return new IpfArchiveWriter(channel, size, footer);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Sets the compression level of the contents deflated by this writer.
+	 *
+	 * @param level The compression level, from 0 to 9.
+	 */
+	public void setLevel(int level) {
+		if((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION)
+			throw new IllegalArgumentException("Invalid compression level: " + level);
+		this.level = level;
+	}
+
+	/**
+	 * Sets the revisions written into the footer.
+	 *
+	 * @param baseRevision The revision the '.ipf' file is based on.
+	 * @param revision The revision of the '.ipf' file.
+	 */
+	public synchronized void setRevisions(long baseRevision, long revision) {
+		footer.putInt(16, (int) baseRevision);
+		footer.putInt(20, (int) revision);
+	}
+
+	/**
+	 * Deflates a content read from a channel and appends it to the data region.
+	 *
+	 * @param path The path of the file, without the '/' root character.
+	 * @param fsName The file system's name stored with the file.
+	 * @param src The channel to read the content from, up to its end.
+	 * @return the attributes of the written file.
+	 *
+	 * @throws IOException - if an I/O error occurs.
+	 */
+	protected synchronized IpfFileAttributes deflate(String path, String fsName, ReadableByteChannel src)
+			throws IOException {
+		long offset = position;
+		CRC32 crc = new CRC32();
+		long size = 0;
+		ByteBuffer input = ByteBuffer.allocate(BLOCK_SIZE);
+		ByteBuffer output = ByteBuffer.allocate(BLOCK_SIZE);
+		Deflater deflater = new Deflater(level, true);
+		try {
+			boolean end = false;
+			while(!deflater.finished()) {
+				if(!end && deflater.needsInput()) {
+					input.clear();
+					end = src.read(input) < 0;
+					input.flip();
+					crc.update(input.duplicate());
+					size += input.remaining();
+					deflater.setInput(input);
+					if(end)
+						deflater.finish();
+				}
+				output.clear();
+				deflater.deflate(output);
+				output.flip();
+				write(output);
+			}
+		} finally {
+			deflater.end();
+		}
+		return attributes(path, fsName, crc.getValue(), position - offset, size, offset);
+	}
+
+	/**
+	 * Appends an already deflated content to the data region, without recompressing it.
+	 *
+	 * @param path The path of the file, without the '/' root character.
+	 * @param fsName The file system's name stored with the file.
+	 * @param compressed The raw deflate content, from its position to its limit.
+	 * @param crc The CRC-32 of the inflated content.
+	 * @param size The size of the inflated content.
+	 * @return the attributes of the written file.
+	 *
+	 * @throws IOException - if an I/O error occurs.
+	 */
+	protected synchronized IpfFileAttributes write(String path, String fsName, ByteBuffer compressed,
+			long crc, long size) throws IOException {
+		long offset = position;
+		write(compressed.duplicate());
+		return attributes(path, fsName, crc, position - offset, size, offset);
+	}
+
+	/**
+	 * Copies a compressed content from another channel to the data region, without recompressing it.
+	 *
+	 * @param path The path of the file, without the '/' root character.
+	 * @param fsName The file system's name stored with the file.
+	 * @param src The channel connected to the '.ipf' file holding the content.
+	 * @param attrs The attributes of the content into the source '.ipf' file.
+	 * @return the attributes of the written file.
+	 *
+	 * @throws IOException - if an I/O error occurs.
+	 */
+	protected synchronized IpfFileAttributes transfer(String path, String fsName, FileChannel src,
+			IpfFileAttributes attrs) throws IOException {
+		long offset = position;
+		checkOffset(offset + attrs.getCompressedSize());
+		long copied = 0;
+		while(copied < attrs.getCompressedSize()) {
+			long count = channel.transferFrom(src.position(attrs.getOffset() + copied),
+					offset + copied, attrs.getCompressedSize() - copied);
+			if(count <= 0)
+				throw new IOException("Truncated content: " + attrs.getPath());
+			copied += count;
+		}
+		position += copied;
+		return attributes(path, fsName, attrs.getCrc(), copied, attrs.size(), offset);
+	}
+
+	/**
+	 * Deflates a content held by memory.
+	 *
+	 * <p>This method doesn't write anything, so that contents can be deflated in parallel,
+	 * then written in order through {@link #write(String, String, ByteBuffer, long, long)}.</p>
+	 *
+	 * @param content The content, from its position to its limit.
+	 * @param level The compression level.
+	 * @return the raw deflate content, from zero to its limit.
+	 */
+	protected static ByteBuffer deflate(ByteBuffer content, int level) {
+		Deflater deflater = new Deflater(level, true);
+		try {
+			deflater.setInput(content.duplicate());
+			deflater.finish();
+			ByteBuffer output = ByteBuffer.allocate(Math.max(64, content.remaining() + content.remaining() / 1000 + 64));
+			while(!deflater.finished()) {
+				if(!output.hasRemaining()) {
+					ByteBuffer larger = ByteBuffer.allocate(output.capacity() * 2);
+					output.flip();
+					larger.put(output);
+					output = larger;
+				}
+				deflater.deflate(output);
+			}
+			output.flip();
+			return output;
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private void write(ByteBuffer src) throws IOException {
+		checkOffset(position + src.remaining());
+		while(src.hasRemaining())
+			position += channel.write(src, position);
+	}
+
+	private static void checkOffset(long offset) throws IOException {
+		if(offset > MAX_OFFSET)
+			throw new IOException("An '.ipf' file can't exceed 4GB.");
+	}
+
+	private static IpfFileAttributes attributes(String path, String fsName, long crc,
+			long compressedSize, long size, long offset) {
+		byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+		byte[] fsNameBytes = fsName.getBytes(StandardCharsets.UTF_8);
+		return new IpfFileAttributes(pathBytes.length, crc, compressedSize, size, offset,
+				fsNameBytes.length, fsName, path);
+	}
+
+	/**
+	 * Writes the file list and the footer after the data region, then truncates the '.ipf' file.
+	 *
+	 * @param table The files to list, whose contents are held by the data region.
+	 *
+	 * @throws IOException - if an I/O error occurs.
+	 */
+	protected synchronized void finish(IpfFileTable table) throws IOException {
+		if(table.size() > MAX_FILE_COUNT)
+			throw new IOException("An '.ipf' file can't hold more than " + MAX_FILE_COUNT + " files.");
+		long listOffset = position;
+		ByteBuffer list = ByteBuffer.allocate(BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		for(int i = 0; i < table.size(); i++) {
+			byte[] fsName = table.getFsName(i).getBytes(StandardCharsets.UTF_8);
+			byte[] path = table.getPath(i).getBytes(StandardCharsets.UTF_8);
+			int length = 20 + fsName.length + path.length;
+			if(list.remaining() < length) {
+				list.flip();
+				write(list);
+				list = ByteBuffer.allocate(Math.max(BLOCK_SIZE, length)).order(ByteOrder.LITTLE_ENDIAN);
+			}
+			list.putShort((short) path.length)
+				.putInt((int) table.getCrc(i))
+				.putInt((int) table.getCompressedSize(i))
+				.putInt((int) table.getSize(i))
+				.putInt((int) table.getOffset(i))
+				.putShort((short) fsName.length)
+				.put(fsName)
+				.put(path);
+		}
+		list.flip();
+		write(list);
+		footer.putShort(0, (short) table.size());
+		footer.putInt(2, (int) listOffset);
+		footer.putInt(8, (int) position);
+		footer.clear();
+		write(footer);
+		channel.truncate(position);
+		channel.force(false);
+	}
+
+	/**
+	 * Gets the size of the '.ipf' file before any content was appended.
+	 *
+	 * @return the original size, or zero for a new file.
+	 */
+	protected long getOriginalSize() {
+		return originalSize;
+	}
+
+	/**
+	 * Drops every appended content, and whatever {@link #finish(IpfFileTable)} may have written, by
+	 * truncating the file to its original size.
+	 *
+	 * @throws IOException - if an I/O error occurs.
+	 */
+	protected synchronized void rollback() throws IOException {
+		channel.truncate(originalSize);
+		channel.force(false);
+		position = originalSize;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,226 @@
+package com.herestt.tos.nio.ipffs;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * An operation applied in parallel to every file of an IPF file system.
+ *
+ * <p>The file table is read once and the files are sorted by offset, so that the '.ipf' file is read
+ * sequentially. Consecutive files are grouped into batches whose compressed content is read at once,
+ * then each batch is processed on an {@link Executor}. Files larger than the memory threshold of the
+ * file system, or singled out by {@link #isProcessedAlone(IpfFileSystem, IpfFileTable, int)}, are processed
+ * one by one through {@link #process(IpfFileSystem, IpfFileAttributes)} instead.</p>
+ *
+ * <p>When the file system is an {@link IpfOverlayFileSystem}, files are first grouped by the '.ipf'
+ * file holding their content, and batches never span two '.ipf' files.</p>
+ *
+ * @author Herestt
+ *
+ */
+public abstract class IpfBulkOperation {
+
+	private final IpfFileSystem ipffs;
+	private final Executor executor;
+
+	/** The maximum size of the compressed content read at once for a batch of files. */
+	private final int batchSize;
+
+	/** The channels connected to the '.ipf' files, all opened before any task is submitted. */
+	private final Map<IpfFileSystem, FileChannel> sources = new IdentityHashMap<>();
+
+	/** Determines whether the tasks not started yet are skipped, once the submission failed. */
+	private volatile boolean cancelled = false;
+
+	protected IpfBulkOperation(IpfFileSystem ipffs, Executor executor, int batchSize) {
+		this.ipffs = ipffs;
+		this.executor = executor;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Processes a file whose compressed content is held by memory.
+	 *
+	 * @param owner The file system holding the content.
+	 * @param attrs The attributes of the file.
+	 * @param compressed The compressed content, from its position to its limit.
+	 *
+	 * @throws IOException - if the file couldn't be processed.
+	 */
+	protected abstract void process(IpfFileSystem owner, IpfFileAttributes attrs, ByteBuffer compressed) throws IOException;
+
+	/**
+	 * Processes a file larger than the memory threshold, or singled out by
+	 * {@link #isProcessedAlone(IpfFileSystem, IpfFileTable, int)}.
+	 *
+	 * @param owner The file system holding the content.
+	 * @param attrs The attributes of the file.
+	 *
+	 * @throws IOException - if the file couldn't be processed.
+	 */
+	protected abstract void process(IpfFileSystem owner, IpfFileAttributes attrs) throws IOException;
+
+	/**
+	 * Determines whether a file is processed on its own, instead of having its compressed content
+	 * read within a batch. By default, only the files larger than the memory threshold are.
+	 *
+	 * @param owner The file system holding the content.
+	 * @param table The file table.
+	 * @param i The position of the file into the table.
+	 * @return <code>true</code> if the file is processed on its own.
+	 */
+	protected boolean isProcessedAlone(IpfFileSystem owner, IpfFileTable table, int i) {
+		return table.getSize(i) >= owner.getMemoryThreshold();
+	}
+
+	/**
+	 * Gets the channel connected to the '.ipf' file of a file system, while the files are processed.
+	 *
+	 * @param owner The file system holding the content.
+	 * @return the channel, shared by every task : only its positional methods can be used.
+	 */
+	protected FileChannel source(IpfFileSystem owner) {
+		return sources.get(owner);
+	}
+
+	/**
+	 * Processes every file and waits for the completion.
+	 *
+	 * @throws IOException - if a file couldn't be processed; the other failures are suppressed by it.
+	 */
+	protected void runAll() throws IOException {
+		IpfFileTable table = ipffs.getTable();
+		Map<IpfFileSystem, int[]> groups = group(table, table.sortByOffset());
+		List<CompletableFuture<Void>> tasks = new ArrayList<>();
+		try {
+			for(IpfFileSystem owner : groups.keySet())
+				sources.put(owner, FileChannel.open(owner.getFileSystemPath(), StandardOpenOption.READ));
+			try {
+				submit(table, groups, tasks);
+			} catch (RuntimeException e) {
+				cancelled = true;
+				for(CompletableFuture<Void> task : tasks)
+					try {
+						task.join();
+					} catch (CompletionException ignored) {
+						// Superseded by the submission failure.
+					}
+				throw e;
+			}
+			IOException failure = null;
+			for(CompletableFuture<Void> task : tasks) {
+				try {
+					task.join();
+				} catch (CompletionException e) {
+					IOException cause = e.getCause() instanceof UncheckedIOException
+							? ((UncheckedIOException) e.getCause()).getCause() : new IOException(e.getCause());
+					if(failure == null)
+						failure = cause;
+					else
+						failure.addSuppressed(cause);
+				}
+			}
+			if(failure != null)
+				throw failure;
+		} finally {
+			for(FileChannel source : sources.values())
+				source.close();
+		}
+	}
+
+	/**
+	 * Groups the files into batches and submits them to the executor.
+	 */
+	private void submit(IpfFileTable table, Map<IpfFileSystem, int[]> groups, List<CompletableFuture<Void>> tasks) {
+		for(Map.Entry<IpfFileSystem, int[]> group : groups.entrySet()) {
+			IpfFileSystem owner = group.getKey();
+			int[] order = group.getValue();
+			int i = 0;
+			while(i < order.length) {
+				int from = i++;
+				long spanStart = table.getOffset(order[from]);
+				if(!isProcessedAlone(owner, table, order[from]))
+					while(i < order.length
+							&& !isProcessedAlone(owner, table, order[i])
+							&& table.getOffset(order[i]) + table.getCompressedSize(order[i]) - spanStart <= batchSize)
+						i++;
+				int[] batch = Arrays.copyOfRange(order, from, i);
+				tasks.add(CompletableFuture.runAsync(() -> {
+					if(cancelled)
+						return;
+					try {
+						run(owner, table, batch);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}, executor));
+			}
+		}
+	}
+
+	/**
+	 * Groups the files by the file system holding their content, keeping their order.
+	 */
+	private Map<IpfFileSystem, int[]> group(IpfFileTable table, int[] order) {
+		Map<IpfFileSystem, int[]> groups = new IdentityHashMap<>();
+		Map<IpfFileSystem, Integer> counts = new IdentityHashMap<>();
+		for(int i : order) {
+			IpfFileSystem owner = ipffs.owner(table.getAttributes(i));
+			int[] group = groups.get(owner);
+			int count = counts.getOrDefault(owner, 0);
+			if(group == null || count == group.length)
+				groups.put(owner, group = Arrays.copyOf(group == null ? new int[16] : group, Math.max(16, count * 2)));
+			group[count] = i;
+			counts.put(owner, count + 1);
+		}
+		for(Map.Entry<IpfFileSystem, int[]> group : groups.entrySet())
+			group.setValue(Arrays.copyOf(group.getValue(), counts.get(group.getKey())));
+		return groups;
+	}
+
+	/**
+	 * Processes a batch of files, sorted by offset, whose content is held by the same file system.
+	 */
+	private void run(IpfFileSystem owner, IpfFileTable table, int[] batch) throws IOException {
+		if(batch.length == 1 && isProcessedAlone(owner, table, batch[0])) {
+			process(owner, table.getAttributes(batch[0]));
+			return;
+		}
+		FileChannel source = owner.isMapped() ? null : sources.get(owner);
+		ByteBuffer span = null;
+		long spanStart = table.getOffset(batch[0]);
+		if(source != null) {
+			long spanEnd = spanStart;
+			for(int i : batch)
+				spanEnd = Math.max(spanEnd, table.getOffset(i) + table.getCompressedSize(i));
+			span = ByteBuffer.allocate((int) (spanEnd - spanStart));
+			while(span.hasRemaining())
+				if(source.read(span, spanStart + span.position()) < 0)
+					throw new EOFException();
+		}
+		for(int i : batch) {
+			IpfFileAttributes attrs = table.getAttributes(i);
+			ByteBuffer input;
+			if(span == null)
+				input = owner.readCompressed(attrs);
+			else {
+				input = span.duplicate();
+				input.limit((int) (attrs.getOffset() - spanStart + attrs.getCompressedSize()));
+				input.position((int) (attrs.getOffset() - spanStart));
+			}
+			process(owner, attrs, input);
+		}
+	}
+}
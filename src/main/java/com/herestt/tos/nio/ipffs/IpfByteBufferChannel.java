@@ -0,0 +1,124 @@
+package com.herestt.tos.nio.ipffs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * A read-only {@link SeekableByteChannel} serving the content of a stored file from memory.
+ *
+ * <p>The content is held by a {@link ByteBuffer}, either heap or direct, that has been inflated
+ * beforehand. No temporary file is involved, so opening and closing this channel doesn't cost
+ * any I/O operation.</p>
+ *
+ * @author Herestt
+ *
+ */
+public class IpfByteBufferChannel implements SeekableByteChannel {
+
+	/** The file system the channel is registered to, if any. */
+	private final IpfFileSystem ipffs;
+
+	/** The content, from zero to its limit. */
+	private ByteBuffer content;
+
+	private long position = 0;
+
+	/**
+	 * IPF Byte Buffer Channel constructor.
+	 *
+	 * @param ipffs The file system the channel is registered to, or <code>null</code>.
+	 * @param content The content to serve, from its position to its limit.
+	 */
+	protected IpfByteBufferChannel(IpfFileSystem ipffs, ByteBuffer content) {
+		this.ipffs = ipffs;
+		this.content = content.slice();
+	}
+
+	private void ensureOpen() throws ClosedChannelException {
+		if(content == null)
+			throw new ClosedChannelException();
+	}
+
+	@Override
+	public synchronized boolean isOpen() {
+		return content != null;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if(content == null)
+			return;
+		content = null;
+		if(ipffs != null)
+			ipffs.unregister(this);
+	}
+
+	@Override
+	public synchronized int read(ByteBuffer dst) throws IOException {
+		ensureOpen();
+		int size = content.limit();
+		if(position >= size)
+			return -1;
+		int length = (int) Math.min(dst.remaining(), size - position);
+		ByteBuffer src = content.duplicate();
+		src.position((int) position).limit((int) position + length);
+		dst.put(src);
+		position += length;
+		return length;
+	}
+
+	/**
+	 * Gets a read-only view of a region of the content, without copying it.
+	 *
+	 * <p>When the content comes from the off-heap cache, the view is a direct buffer.
+	 * The position of the channel is left unchanged.</p>
+	 *
+	 * @param position The start of the region.
+	 * @param size The size of the region.
+	 * @return the read-only view, from zero to its limit.
+	 *
+	 * @throws IOException - if the channel is closed.
+	 */
+	public synchronized ByteBuffer slice(long position, int size) throws IOException {
+		ensureOpen();
+		if(position < 0 || size < 0 || position + size > content.limit())
+			throw new IndexOutOfBoundsException();
+		ByteBuffer view = content.asReadOnlyBuffer();
+		view.position((int) position).limit((int) position + size);
+		return view.slice();
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public synchronized long position() throws IOException {
+		ensureOpen();
+		return position;
+	}
+
+	@Override
+	public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+		ensureOpen();
+		if(newPosition < 0)
+			throw new IllegalArgumentException();
+		position = newPosition;
+		return this;
+	}
+
+	@Override
+	public synchronized long size() throws IOException {
+		ensureOpen();
+		return content.limit();
+	}
+
+	@Override
+	public SeekableByteChannel truncate(long size) throws IOException {
+		throw new NonWritableChannelException();
+	}
+}
@@ -0,0 +1,173 @@
+package com.herestt.tos.nio.ipffs;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A little-endian reader over the content of an '.ipf' file.
+ *
+ * <p>Each reader has its own cursor and its own buffer, so several readers can be used
+ * at the same time from different threads, as long as each one is connected to its own
+ * channel. The bytes are either read from a {@link SeekableByteChannel} by blocks, or
+ * directly from a {@link ByteBuffer} already holding them.</p>
+ *
+ * @author Herestt
+ *
+ */
+public class IpfByteReader {
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	/** The channel the bytes are read from, or <code>null</code> when reading a buffer. */
+	private final SeekableByteChannel channel;
+
+	/** The bytes read from the channel. */
+	private final ByteBuffer buffer;
+
+	/** The position of the first byte of the buffer. */
+	private long bufferPosition;
+
+	/**
+	 * Creates a reader over a channel.
+	 *
+	 * @param channel The channel, which is moved by the reader.
+	 */
+	public IpfByteReader(SeekableByteChannel channel) {
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		this.buffer.flip();
+	}
+
+	/**
+	 * Creates a reader over a buffer.
+	 *
+	 * @param content The bytes to read, from zero to the buffer limit.
+	 * @param position The position of the first byte of the buffer into the file.
+	 */
+	public IpfByteReader(ByteBuffer content, long position) {
+		this.channel = null;
+		this.buffer = content.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		this.buffer.position(0);
+		this.bufferPosition = position;
+	}
+
+	/**
+	 * Gets the position of the cursor.
+	 *
+	 * @return the position into the file.
+	 */
+	public long position() {
+		return bufferPosition + buffer.position();
+	}
+
+	/**
+	 * Moves the cursor.
+	 *
+	 * @param position The new position into the file.
+	 * @return this reader.
+	 *
+	 * @throws IOException - if the position can't be reached.
+	 */
+	public IpfByteReader position(long position) throws IOException {
+		if(position >= bufferPosition && position <= bufferPosition + buffer.limit())
+			buffer.position((int) (position - bufferPosition));
+		else if(channel == null)
+			throw new EOFException();
+		else {
+			bufferPosition = position;
+			buffer.clear().flip();
+		}
+		return this;
+	}
+
+	/**
+	 * Skips bytes.
+	 *
+	 * @param n The count of bytes to skip.
+	 * @return this reader.
+	 *
+	 * @throws IOException - if the position can't be reached.
+	 */
+	public IpfByteReader skip(int n) throws IOException {
+		return position(position() + n);
+	}
+
+	/**
+	 * Ensures the buffer holds at least <code>n</code> bytes from the cursor.
+	 */
+	private void require(int n) throws IOException {
+		if(buffer.remaining() >= n)
+			return;
+		if(channel == null)
+			throw new EOFException();
+		int remaining = buffer.remaining();
+		bufferPosition += buffer.position();
+		buffer.compact();
+		channel.position(bufferPosition + remaining);
+		while(buffer.position() < n)
+			if(channel.read(buffer) < 0)
+				throw new EOFException();
+		buffer.flip();
+	}
+
+	public int readUnsignedShort() throws IOException {
+		require(2);
+		return buffer.getShort() & 0xFFFF;
+	}
+
+	public long readUnsignedInt() throws IOException {
+		require(4);
+		return buffer.getInt() & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Reads bytes into an array.
+	 *
+	 * @param dst The array.
+	 * @param off The position of the first byte to write.
+	 * @param len The count of bytes to read.
+	 *
+	 * @throws IOException - if an I/O error occurs.
+	 */
+	public void readBytes(byte[] dst, int off, int len) throws IOException {
+		while(len > 0) {
+			require(1);
+			int count = Math.min(len, buffer.remaining());
+			buffer.get(dst, off, count);
+			off += count;
+			len -= count;
+		}
+	}
+
+	public byte[] readBytes(int n) throws IOException {
+		byte[] bytes = new byte[n];
+		readBytes(bytes, 0, n);
+		return bytes;
+	}
+
+	/**
+	 * Reads an UTF-8 string.
+	 *
+	 * @param n The size of the string, in bytes.
+	 * @return the string.
+	 *
+	 * @throws IOException - if an I/O error occurs.
+	 */
+	public String readString(int n) throws IOException {
+		if(n <= buffer.capacity()) {
+			require(n);
+			String s;
+			if(buffer.hasArray())
+				s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), n, StandardCharsets.UTF_8);
+			else
+				return new String(readBytes(n), StandardCharsets.UTF_8);
+			buffer.position(buffer.position() + n);
+			return s;
+		}
+		return new String(readBytes(n), StandardCharsets.UTF_8);
+	}
+}
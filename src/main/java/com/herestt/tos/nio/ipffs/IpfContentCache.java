@@ -0,0 +1,185 @@
+package com.herestt.tos.nio.ipffs;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A cache of inflated contents, bounded by a total byte budget.
+ *
+ * <p>Contents are keyed by the position of their file into the {@link IpfFileTable} of the file
+ * system combined with the offset of their content (see {@link #key(IpfFileAttributes)}), so that
+ * a content replaced into a writable file system is never served again. They are evicted in least
+ * recently used order once the budget is exceeded. Contents larger than the whole budget are never
+ * cached.</p>
+ *
+ * <p>Cached contents are read-only buffers : each call to {@link #get(long)} returns an independent
+ * view over the same memory, so that cache hits don't copy anything.</p>
+ *
+ * <p>A cache can either keep the contents on the heap, or copy them into direct buffers so that
+ * they stay out of reach of the garbage collector. A heap cache can be backed by a direct one :
+ * contents evicted from the heap are then demoted to the second level instead of being dropped.</p>
+ *
+ * @author Herestt
+ *
+ */
+public class IpfContentCache {
+
+	/** The maximum count of cached bytes. */
+	private final long capacity;
+
+	/** The current count of cached bytes. */
+	private long size = 0;
+
+	/** Determines whether the contents are copied into direct buffers. */
+	private final boolean direct;
+
+	/** The cache the evicted contents are demoted to, or <code>null</code>. */
+	private final IpfContentCache next;
+
+	/** The cached contents, in access order. */
+	private final LinkedHashMap<Long, ByteBuffer> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	/**
+	 * IPF Content Cache constructor.
+	 *
+	 * @param capacity The maximum count of cached bytes.
+	 */
+	protected IpfContentCache(long capacity) {
+		this(capacity, false, null);
+	}
+
+	/**
+	 * IPF Content Cache constructor.
+	 *
+	 * @param capacity The maximum count of cached bytes.
+	 * @param direct <code>true</code> to copy the contents into direct buffers.
+	 * @param next The cache the evicted contents are demoted to, or <code>null</code>.
+	 */
+	protected IpfContentCache(long capacity, boolean direct, IpfContentCache next) {
+		if(capacity <= 0)
+			throw new IllegalArgumentException("The capacity must be positive.");
+		this.capacity = capacity;
+		this.direct = direct;
+		this.next = next;
+	}
+
+	/**
+	 * Gets the key of the content of a file.
+	 *
+	 * @param attrs The attributes of the file, read from the table of the file system.
+	 * @return the key.
+	 */
+	protected static long key(IpfFileAttributes attrs) {
+		return ((long) attrs.getIndex() << 32) | attrs.getOffset();
+	}
+
+	/**
+	 * Gets a cached content.
+	 *
+	 * @param key The key of the content.
+	 * @return a read-only view of the content, or <code>null</code> if it isn't cached.
+	 */
+	protected synchronized ByteBuffer get(long key) {
+		ByteBuffer content = entries.get(key);
+		if(content == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return content.duplicate();
+	}
+
+	/**
+	 * Caches a content, then evicts the least recently used ones until the budget is met.
+	 *
+	 * <p>The evicted contents are demoted to the next cache, if any.</p>
+	 *
+	 * @param key The key of the content.
+	 * @param content The content, from its position to its limit.
+	 */
+	protected void put(long key, ByteBuffer content) {
+		int length = content.remaining();
+		if(length > capacity)
+			return;
+		if(direct && !content.isDirect()) {
+			ByteBuffer copy = ByteBuffer.allocateDirect(length);
+			copy.put(content.duplicate());
+			copy.flip();
+			content = copy;
+		}
+		List<Map.Entry<Long, ByteBuffer>> evicted = null;
+		synchronized (this) {
+			ByteBuffer previous = entries.put(key, content.slice().asReadOnlyBuffer());
+			if(previous != null)
+				size -= previous.remaining();
+			size += length;
+			Iterator<Map.Entry<Long, ByteBuffer>> it = entries.entrySet().iterator();
+			while(size > capacity && it.hasNext()) {
+				Map.Entry<Long, ByteBuffer> eldest = it.next();
+				if(eldest.getKey() == key)
+					continue;
+				if(next != null) {
+					if(evicted == null)
+						evicted = new ArrayList<>();
+					evicted.add(new AbstractMap.SimpleImmutableEntry<>(eldest));
+				}
+				size -= eldest.getValue().remaining();
+				it.remove();
+				evictions++;
+			}
+		}
+		if(evicted != null)
+			for(Map.Entry<Long, ByteBuffer> entry : evicted)
+				next.put(entry.getKey(), entry.getValue());
+	}
+
+	/**
+	 * Removes every cached content.
+	 */
+	protected synchronized void clear() {
+		entries.clear();
+		size = 0;
+	}
+
+	/**
+	 * Determines whether the contents are kept into direct buffers.
+	 *
+	 * @return <code>true</code> if the cache is off-heap.
+	 */
+	public boolean isDirect() {
+		return direct;
+	}
+
+	public long getCapacity() {
+		return capacity;
+	}
+
+	public synchronized long getSize() {
+		return size;
+	}
+
+	public synchronized int getEntryCount() {
+		return entries.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+}
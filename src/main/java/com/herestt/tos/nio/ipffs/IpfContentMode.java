@@ -0,0 +1,61 @@
+package com.herestt.tos.nio.ipffs;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.CopyOption;
+import java.nio.file.OpenOption;
+
+/**
+ * Determines how the content of a file is written when it is copied out of an IPF file system,
+ * either through {@link IpfFileSystemProvider#copy(java.nio.file.Path, java.nio.file.Path, CopyOption...)}
+ * or through {@link IpfFileSystem#extractAll(java.nio.file.Path, IpfExtractOptions)}, or how it is
+ * served by a read-only channel.
+ *
+ * <p>As {@link java.nio.file.Files#copy(java.nio.file.Path, java.nio.file.Path, CopyOption...)} rejects
+ * the options it doesn't know when the target is hosted by another file system, the mode must be given
+ * to the provider itself :
+ * <pre>
+ * {@code
+ * source.getFileSystem().provider().copy(source, out, IpfContentMode.RAW);
+ * }
+ * </pre></p>
+ *
+ * <p>The contents that aren't inflated are transferred from the '.ipf' file by
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, so that the
+ * operating system copies them without going through memory. They aren't checked against their
+ * CRC-32.</p>
+ *
+ * <p>Given as an {@link OpenOption}, the mode lets a read-only channel serve the content as held by the
+ * '.ipf' file, through an {@link IpfRawChannel} :
+ * <pre>
+ * {@code
+ * try(SeekableByteChannel sbc = Files.newByteChannel(path, IpfContentMode.RAW)) {
+ * 	// raw deflate data...
+ * }
+ * }
+ * </pre>
+ * Only the {@link #INFLATE} mode can be given to a writable channel.</p>
+ *
+ * @author Herestt
+ *
+ */
+public enum IpfContentMode implements CopyOption, OpenOption {
+
+	/** Every content is inflated. */
+	INFLATE,
+
+	/** The contents stored as is are transferred, while the other ones are inflated. */
+	STORED,
+
+	/** Every content is transferred as stored by the '.ipf' file : raw deflate data, or stored bytes. */
+	RAW;
+
+	/**
+	 * Determines whether the content of a file is transferred without being inflated.
+	 *
+	 * @param attrs The attributes of the file.
+	 * @return <code>true</code> if the content is transferred as is.
+	 */
+	public boolean isTransferred(IpfFileAttributes attrs) {
+		return this == RAW || (this == STORED && attrs.isStored());
+	}
+}
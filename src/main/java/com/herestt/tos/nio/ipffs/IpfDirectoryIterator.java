@@ -1,57 +1,50 @@
 package com.herestt.tos.nio.ipffs;
 
-import java.io.IOException;
-import java.nio.ByteOrder;
-import java.nio.file.Files;
 import java.nio.file.Path;
-
-import com.herestt.common.io.FileContent;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * An iterator that parses {@link IpfPath} fromIPF file systems.
+ * An iterator over the direct children of an IPF file system directory.
+ * 
+ * <p>The children are read from the {@link IpfDirectoryTree} of the file system : sub-directories
+ * come first, then files. The '.ipf' file isn't accessed. The snapshot of the file system is taken
+ * by the first call to {@link #hasNext()}, so that the iteration isn't affected by the changes made
+ * to a writable file system in the meantime.</p>
  * 
  * @author Herestt
  *
  */
 public class IpfDirectoryIterator extends IpfIterator<Path> {
 	
-	private final static int HEADER_SIZE = 24;
-	
-	private int fileCount;
-	private int currentCount = 0;
-	private long listOffset;
+	/** The version of the stored files being iterated. */
+	private IpfFileSystem.Snapshot snapshot;
+	private List<String> directories;
+	private int[] files;
+	private int current = 0;
 	
 	@Override
 	public void init() {
-		Path ipf = path.getFileSystem().getFileSystemPath();
-		try {
-			long headerOffset = Files.size(ipf) - HEADER_SIZE;
-			FileContent.access(sbc, headerOffset);
-			FileContent.order(ByteOrder.LITTLE_ENDIAN);
-			fileCount = FileContent.read().asUnsignedShort();
-			listOffset = FileContent.read().asUnsignedInt();
-			FileContent.position(listOffset);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		snapshot = path.getFileSystem().getSnapshot();
+		IpfDirectoryTree tree = snapshot.getTree();
+		directories = new ArrayList<>(tree.getDirectories(path.toString()));
+		files = tree.getFiles(path.toString());
 	}
 
 	@Override
 	public Path process() {
-		if(currentCount >= fileCount)
+		IpfFileSystem ipffs = path.getFileSystem();
+		if(current < directories.size())
+			return ipffs.getPath(directories.get(current++));
+		int i = current - directories.size();
+		if(i >= files.length)
 			return null;
-		Path p = null;
-		try {
-			int pathSize = FileContent.read().asUnsignedShort();
-			FileContent.skip(16);
-			int fsNameSize = FileContent.read().asUnsignedShort();
-			FileContent.skip(fsNameSize);
-			String strPath = FileContent.read().asString(pathSize);
-			p = path.getFileSystem().getPath("/" + strPath);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		currentCount++;
-		return p;
+		current++;
+		return ipffs.getPath("/" + snapshot.getTable().getPath(files[i]));
+	}
+	
+	@Override
+	protected boolean requiresChannel() {
+		return false;
 	}
-}
\ No newline at end of file
+}
@@ -77,10 +77,12 @@ public class IpfDirectoryStream<E> implements DirectoryStream<E> {
 
 	public Iterator<E> iterator() {
 		try {
-			sbc = Files.newByteChannel(fsPath(dir));
 			IpfIterator<E> it = iterator.newInstance();
 			it.setDirectory(dir);
-			it.setChannel(sbc);
+			if(it.requiresChannel()) {
+				sbc = Files.newByteChannel(fsPath(dir));
+				it.setChannel(sbc);
+			}
 			it.setFilter(filter);
 			return it;
 		} catch (InstantiationException | IllegalAccessException | IOException e) {
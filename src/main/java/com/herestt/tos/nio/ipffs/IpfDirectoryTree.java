@@ -0,0 +1,152 @@
+package com.herestt.tos.nio.ipffs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The directory hierarchy of an IPF file system.
+ *
+ * <p>IPF file systems don't store any directory : each file is described by its full path. This tree
+ * is built once from the paths of the {@link IpfFileTable}, so that listing a directory only costs
+ * its own children, and so that directories can be told apart from missing files.</p>
+ *
+ * <p>Directories are identified by their absolute path, without any trailing '/' character except
+ * for the root.</p>
+ *
+ * @author Herestt
+ *
+ */
+public class IpfDirectoryTree {
+
+	/** The path of the root directory. */
+	protected static final String ROOT = "/";
+
+	/** The directories, keyed by their absolute path. */
+	private final Map<String, Node> nodes = new HashMap<>();
+
+	/**
+	 * Builds the tree of the files held by a table.
+	 *
+	 * @param table The file table.
+	 */
+	protected IpfDirectoryTree(IpfFileTable table) {
+		nodes.put(ROOT, new Node());
+		for(int i = 0; i < table.size(); i++)
+			add(i, table.getPath(i));
+	}
+
+	/**
+	 * Adds a file to the tree, and creates its missing parent directories.
+	 *
+	 * @param file The position of the file into the table.
+	 * @param path The file path, without the '/' root character.
+	 */
+	protected void add(int file, String path) {
+		node(parentOf("/" + path)).add(file);
+	}
+
+	/**
+	 * Adds a directory that doesn't hold any file, and creates its missing parent directories.
+	 *
+	 * @param dir The absolute path of the directory.
+	 */
+	protected void addDirectory(String dir) {
+		node(key(dir));
+	}
+
+	/**
+	 * Gets a directory node, creating it and its ancestors if necessary.
+	 */
+	private Node node(String dir) {
+		Node node = nodes.get(dir);
+		if(node == null) {
+			node = new Node();
+			nodes.put(dir, node);
+			node(parentOf(dir)).directories.add(dir);
+		}
+		return node;
+	}
+
+	/**
+	 * Gets the parent directory of an absolute path.
+	 */
+	private static String parentOf(String path) {
+		int index = path.lastIndexOf('/');
+		return index <= 0 ? ROOT : path.substring(0, index);
+	}
+
+	/**
+	 * Normalizes a directory path.
+	 */
+	private static String key(String dir) {
+		if(!dir.startsWith("/"))
+			dir = "/" + dir;
+		while(dir.length() > 1 && dir.endsWith("/"))
+			dir = dir.substring(0, dir.length() - 1);
+		return dir;
+	}
+
+	/**
+	 * Determines whether a path targets a directory.
+	 *
+	 * @param dir The absolute path.
+	 * @return <code>true</code> if the path is a directory.
+	 */
+	public boolean isDirectory(String dir) {
+		return nodes.containsKey(key(dir));
+	}
+
+	/**
+	 * Gets the absolute paths of the sub-directories of a directory.
+	 *
+	 * @param dir The directory.
+	 * @return the sub-directories, or an empty list if the directory doesn't exist.
+	 */
+	public List<String> getDirectories(String dir) {
+		Node node = nodes.get(key(dir));
+		return node == null ? Collections.<String>emptyList() : Collections.unmodifiableList(node.directories);
+	}
+
+	/**
+	 * Gets the files held by a directory.
+	 *
+	 * @param dir The directory.
+	 * @return the positions of the files into the table.
+	 */
+	public int[] getFiles(String dir) {
+		Node node = nodes.get(key(dir));
+		return node == null ? new int[0] : Arrays.copyOf(node.files, node.fileCount);
+	}
+
+	/**
+	 * Gets the count of directories, the root included.
+	 *
+	 * @return the directory count.
+	 */
+	public int size() {
+		return nodes.size();
+	}
+
+	/**
+	 * A directory of the tree.
+	 */
+	private static class Node {
+
+		/** The absolute paths of the sub-directories. */
+		private final List<String> directories = new ArrayList<>(2);
+
+		/** The positions of the files into the table. */
+		private int[] files = new int[4];
+		private int fileCount = 0;
+
+		private void add(int file) {
+			if(fileCount == files.length)
+				files = Arrays.copyOf(files, fileCount * 2);
+			files[fileCount++] = file;
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package com.herestt.tos.nio.ipffs;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The options of a bulk extraction made through {@link IpfFileSystem#extractAll(java.nio.file.Path, IpfExtractOptions)}.
+ *
+ * <p>By default, the extraction runs on the common {@link ForkJoinPool}, inflates every file and fails
+ * on files that already exist in the target directory.</p>
+ *
+ * @author Herestt
+ *
+ */
+public class IpfExtractOptions {
+
+	/** The executor the files are inflated and written on. */
+	private Executor executor = ForkJoinPool.commonPool();
+
+	/** Determines whether existing files are replaced. */
+	private boolean replaceExisting = false;
+
+	/** The maximum size of the compressed content read at once for a batch of files. */
+	private int batchSize = 8 * 1024 * 1024;
+
+	/** Determines which contents are inflated. */
+	private IpfContentMode mode = IpfContentMode.INFLATE;
+
+	public IpfExtractOptions() {}
+
+	/**
+	 * Gets the executor the files are inflated and written on.
+	 *
+	 * @return the executor.
+	 */
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Sets the executor the files are inflated and written on.
+	 *
+	 * @param executor The new executor.
+	 */
+	public void setExecutor(Executor executor) {
+		if(executor == null)
+			throw new NullPointerException();
+		this.executor = executor;
+	}
+
+	/**
+	 * Determines whether existing files are replaced.
+	 *
+	 * @return <code>true</code> if existing files are replaced.
+	 */
+	public boolean isReplaceExisting() {
+		return replaceExisting;
+	}
+
+	/**
+	 * Sets whether existing files are replaced.
+	 *
+	 * @param replaceExisting <code>true</code> to replace existing files.
+	 */
+	public void setReplaceExisting(boolean replaceExisting) {
+		this.replaceExisting = replaceExisting;
+	}
+
+	/**
+	 * Gets the maximum size of the compressed content read at once for a batch of files.
+	 *
+	 * @return the batch size, in bytes.
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Sets the maximum size of the compressed content read at once for a batch of files.
+	 *
+	 * @param batchSize The new batch size, in bytes.
+	 */
+	public void setBatchSize(int batchSize) {
+		if(batchSize <= 0)
+			throw new IllegalArgumentException();
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Gets the mode determining which contents are inflated.
+	 *
+	 * @return the content mode.
+	 */
+	public IpfContentMode getMode() {
+		return mode;
+	}
+
+	/**
+	 * Sets the mode determining which contents are inflated. The other contents are transferred
+	 * from the '.ipf' file as is.
+	 *
+	 * @param mode The new content mode.
+	 */
+	public void setMode(IpfContentMode mode) {
+		if(mode == null)
+			throw new NullPointerException();
+		this.mode = mode;
+	}
+}
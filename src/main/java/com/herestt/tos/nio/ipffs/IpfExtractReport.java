@@ -0,0 +1,71 @@
+package com.herestt.tos.nio.ipffs;
+
+import java.time.Duration;
+
+/**
+ * Describes the outcome of a bulk extraction.
+ *
+ * @author Herestt
+ *
+ */
+public class IpfExtractReport {
+
+	/** The count of extracted files. */
+	private final int fileCount;
+
+	/** The count of bytes written. */
+	private final long size;
+
+	/** The count of compressed bytes read. */
+	private final long compressedSize;
+
+	/** The duration of the extraction, in nanoseconds. */
+	private final long elapsedNanos;
+
+	protected IpfExtractReport(int fileCount, long size, long compressedSize, long elapsedNanos) {
+		this.fileCount = fileCount;
+		this.size = size;
+		this.compressedSize = compressedSize;
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	public int getFileCount() {
+		return fileCount;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public long getCompressedSize() {
+		return compressedSize;
+	}
+
+	public Duration getElapsedTime() {
+		return Duration.ofNanos(elapsedNanos);
+	}
+
+	/**
+	 * Gets the count of bytes written per second.
+	 *
+	 * @return the throughput, in bytes per second.
+	 */
+	public double getThroughput() {
+		return elapsedNanos == 0 ? 0 : size * 1e9 / elapsedNanos;
+	}
+
+	/**
+	 * Gets the count of files extracted per second.
+	 *
+	 * @return the throughput, in files per second.
+	 */
+	public double getFileThroughput() {
+		return elapsedNanos == 0 ? 0 : fileCount * 1e9 / elapsedNanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d files, %d bytes in %d ms (%.1f MB/s, %.0f files/s)",
+				fileCount, size, elapsedNanos / 1000000, getThroughput() / (1024 * 1024), getFileThroughput());
+	}
+}
@@ -0,0 +1,153 @@
+package com.herestt.tos.nio.ipffs;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+
+/**
+ * Extracts every file of an IPF file system into a directory of the default file system.
+ *
+ * <p>The files are read and inflated in batches by increasing offset, as described by
+ * {@link IpfBulkOperation}, on the executor given by the {@link IpfExtractOptions}.
+ * Files larger than the memory threshold of the file system are streamed one by one
+ * through an {@link IpfInflaterChannel}.</p>
+ *
+ * <p>The files that the {@link IpfContentMode} of the options doesn't inflate are never read
+ * into memory : each one is transferred on its own from the '.ipf' file to its target.</p>
+ *
+ * @author Herestt
+ *
+ */
+public class IpfExtractor extends IpfBulkOperation {
+
+	private static final OpenOption[] CREATE_NEW = { StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE };
+	private static final OpenOption[] REPLACE = { StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+			StandardOpenOption.TRUNCATE_EXISTING };
+
+	private final Path target;
+	private final IpfExtractOptions options;
+
+	/** The directories already created, each one created once by the mapping function. */
+	private final Map<Path, Boolean> directories = new ConcurrentHashMap<>();
+
+	private final AtomicInteger fileCount = new AtomicInteger();
+	private final LongAdder size = new LongAdder();
+	private final LongAdder compressedSize = new LongAdder();
+
+	protected IpfExtractor(IpfFileSystem ipffs, Path target, IpfExtractOptions options) {
+		super(ipffs, options.getExecutor(), options.getBatchSize());
+		this.target = target.toAbsolutePath().normalize();
+		this.options = options;
+	}
+
+	/**
+	 * Runs the extraction.
+	 *
+	 * @return the extraction report.
+	 *
+	 * @throws IOException - if a file couldn't be extracted; the other failures are suppressed by it.
+	 */
+	protected IpfExtractReport run() throws IOException {
+		long start = System.nanoTime();
+		Files.createDirectories(target);
+		runAll();
+		return new IpfExtractReport(fileCount.get(), size.sum(), compressedSize.sum(), System.nanoTime() - start);
+	}
+
+	@Override
+	protected void process(IpfFileSystem owner, IpfFileAttributes attrs, ByteBuffer compressed) throws IOException {
+		ByteBuffer output = ByteBuffer.allocate((int) attrs.size());
+		try {
+			owner.inflate(compressed, output);
+		} catch (DataFormatException e) {
+			throw new IOException(attrs.getPath(), e);
+		}
+		output.flip();
+		if(output.remaining() != attrs.size())	// A short file is never written, even without CRC check.
+			throw new EOFException(attrs.getPath());
+		if(owner.isCrcVerified())
+			IpfFileSystem.checkCrc(attrs, output.duplicate());
+		try(FileChannel dest = FileChannel.open(resolve(attrs), options())) {
+			while(output.hasRemaining())
+				dest.write(output);
+		}
+		done(attrs, attrs.size());
+	}
+
+	/**
+	 * Extracts a large file through an {@link IpfInflaterChannel}, or transfers a file
+	 * that isn't inflated.
+	 */
+	@Override
+	protected void process(IpfFileSystem owner, IpfFileAttributes attrs) throws IOException {
+		if(options.getMode().isTransferred(attrs)) {
+			try(FileChannel dest = FileChannel.open(resolve(attrs), options())) {
+				IpfFileSystem.transfer(attrs, source(owner), dest);
+			}
+			done(attrs, attrs.getCompressedSize());
+			return;
+		}
+		try(IpfInflaterChannel src = new IpfInflaterChannel(owner, attrs);
+				FileChannel dest = FileChannel.open(resolve(attrs), options())) {
+			long position = 0;
+			while(position < attrs.size()) {
+				long count = dest.transferFrom(src, position, attrs.size() - position);
+				if(count <= 0)
+					throw new EOFException(attrs.getPath());
+				position += count;
+			}
+		}
+		done(attrs, attrs.size());
+	}
+
+	@Override
+	protected boolean isProcessedAlone(IpfFileSystem owner, IpfFileTable table, int i) {
+		return super.isProcessedAlone(owner, table, i)
+				|| (options.getMode() != IpfContentMode.INFLATE && options.getMode().isTransferred(table.getAttributes(i)));
+	}
+
+	private void done(IpfFileAttributes attrs, long written) {
+		fileCount.incrementAndGet();
+		size.add(written);
+		compressedSize.add(attrs.getCompressedSize());
+	}
+
+	private OpenOption[] options() {
+		return options.isReplaceExisting() ? REPLACE : CREATE_NEW;
+	}
+
+	/**
+	 * Resolves the path a file is extracted to, and creates its parent directories.
+	 *
+	 * @throws IOException - if the file would be extracted outside of the target directory.
+	 */
+	private Path resolve(IpfFileAttributes attrs) throws IOException {
+		Path out = target.resolve(attrs.getPath()).normalize();
+		if(!out.startsWith(target) || out.equals(target))
+			throw new IOException("The file is outside of the target directory: " + attrs.getPath());
+		try {
+			directories.computeIfAbsent(out.getParent(), parent -> {
+				try {
+					Files.createDirectories(parent);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				return Boolean.TRUE;
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		return out;
+	}
+}
@@ -22,6 +22,9 @@ import java.nio.file.attribute.FileTime;
  * 		</ul>
  * </p> 
  * 
+ * <p>Attributes created by an {@link IpfFileTable} are flyweights : they read their values from
+ * the table until one of the setters is called, at which point they are copied into the object.</p>
+ * 
  * @author Herestt
  *
  */
@@ -51,8 +54,38 @@ public class IpfFileAttributes implements BasicFileAttributes {
 	/**	The path of the file. */
 	private String path;
 	
+	/** Determines whether the attributes describe a directory. */
+	private boolean directory = false;
+	
+	/** The table the attributes are read from, or <code>null</code> once detached. */
+	private IpfFileTable table;
+	
+	/** The position of the file into the table. */
+	private int index;
+	
 	public IpfFileAttributes() {}
 
+	protected IpfFileAttributes(IpfFileTable table, int index) {
+		this.table = table;
+		this.index = index;
+	}
+
+	/**
+	 * Creates the attributes of a directory.
+	 * 
+	 * Directories aren't stored by IPF file systems, so only their path is known.
+	 * 
+	 * @param path The directory path, without the '/' root character.
+	 * @return the directory attributes.
+	 */
+	protected static IpfFileAttributes directory(String path) {
+		IpfFileAttributes attrs = new IpfFileAttributes();
+		attrs.directory = true;
+		attrs.path = path;
+		attrs.pathSize = path.length();
+		return attrs;
+	}
+
 	public IpfFileAttributes(int pathSize, long crc, long compressedSize,
 			long size, long offset, int fsNameSize, String fsName, String path) {
 		super();
@@ -82,11 +115,11 @@ public class IpfFileAttributes implements BasicFileAttributes {
 	}
 
 	public boolean isRegularFile() {
-		return true;
+		return !directory;
 	}
 
 	public boolean isDirectory() {
-		return false;
+		return directory;
 	}
 
 	public boolean isSymbolicLink() {
@@ -97,8 +130,20 @@ public class IpfFileAttributes implements BasicFileAttributes {
 		return false;
 	}
 
+	/**
+	 * Determines whether the content is stored as is, without being compressed.
+	 * 
+	 * <p>Some files, like already compressed media, are stored as is by '.ipf' files. Their
+	 * compressed size then equals their size.</p>
+	 * 
+	 * @return <code>true</code> if the file is a stored, uncompressed one.
+	 */
+	public boolean isStored() {
+		return !directory && getCompressedSize() == size();
+	}
+
 	public long size() {
-		return size;
+		return table != null ? table.getSize(index) : size;
 	}
 
 	public Object fileKey() {
@@ -108,6 +153,42 @@ public class IpfFileAttributes implements BasicFileAttributes {
 
 	/*** IPF File Attributes Specific Methods ***/
 	
+	/**
+	 * Gets the table the attributes are read from.
+	 * 
+	 * @return the table, or <code>null</code> if the attributes have been detached from it.
+	 */
+	protected IpfFileTable getTable() {
+		return table;
+	}
+	
+	/**
+	 * Gets the position of the file into its table.
+	 * 
+	 * @return the position, meaningless if the attributes have been detached.
+	 */
+	protected int getIndex() {
+		return index;
+	}
+	
+	/**
+	 * Copies the values read from the table into this object, so that
+	 * they can be modified without altering the table.
+	 */
+	private void detach() {
+		if(table == null)
+			return;
+		pathSize = table.getPathSize(index);
+		crc = table.getCrc(index);
+		compressedSize = table.getCompressedSize(index);
+		size = table.getSize(index);
+		offset = table.getOffset(index);
+		fsNameSize = table.getFsNameSize(index);
+		fsName = table.getFsName(index);
+		path = table.getPath(index);
+		table = null;
+	}
+	
 	/**
 	 * Gets the path size.
 	 * 
@@ -117,7 +198,7 @@ public class IpfFileAttributes implements BasicFileAttributes {
 	 * @return the path size.
 	 */
 	public int getPathSize() {
-		return pathSize;
+		return table != null ? table.getPathSize(index) : pathSize;
 	}
 
 	/**
@@ -126,6 +207,7 @@ public class IpfFileAttributes implements BasicFileAttributes {
 	 * @param pathSize The new path size.
 	 */
 	public void setPathSize(int pathSize) {
+		detach();
 		this.pathSize = pathSize;
 	}
 
@@ -135,7 +217,7 @@ public class IpfFileAttributes implements BasicFileAttributes {
 	 * @return the checksum.
 	 */
 	public long getCrc() {
-		return crc;
+		return table != null ? table.getCrc(index) : crc;
 	}
 
 	/**
@@ -144,6 +226,7 @@ public class IpfFileAttributes implements BasicFileAttributes {
 	 * @param crc The new checksum.
 	 */
 	public void setCrc(long crc) {
+		detach();
 		this.crc = crc;
 	}
 
@@ -153,7 +236,7 @@ public class IpfFileAttributes implements BasicFileAttributes {
 	 * @return The compressed size.
 	 */
 	public long getCompressedSize() {
-		return compressedSize;
+		return table != null ? table.getCompressedSize(index) : compressedSize;
 	}
 
 	/**
@@ -162,6 +245,7 @@ public class IpfFileAttributes implements BasicFileAttributes {
 	 * @param compressedSize The new compressed size.
 	 */
 	public void setCompressedSize(long compressedSize) {
+		detach();
 		this.compressedSize = compressedSize;
 	}
 
@@ -171,6 +255,7 @@ public class IpfFileAttributes implements BasicFileAttributes {
 	 * @param size The new file size.
 	 */
 	public void size(long size) {
+		detach();
 		this.size = size;
 	}
 
@@ -180,7 +265,7 @@ public class IpfFileAttributes implements BasicFileAttributes {
 	 * @return the offset.
 	 */
 	public long getOffset() {
-		return offset;
+		return table != null ? table.getOffset(index) : offset;
 	}
 
 	/**
@@ -189,6 +274,7 @@ public class IpfFileAttributes implements BasicFileAttributes {
 	 * @param offset The new offset of the content.
 	 */
 	public void setOffset(long offset) {
+		detach();
 		this.offset = offset;
 	}
 
@@ -198,7 +284,7 @@ public class IpfFileAttributes implements BasicFileAttributes {
 	 * @return the file system's name size.
 	 */
 	public int getFsNameSize() {
-		return fsNameSize;
+		return table != null ? table.getFsNameSize(index) : fsNameSize;
 	}
 
 	/**
@@ -207,6 +293,7 @@ public class IpfFileAttributes implements BasicFileAttributes {
 	 * @param fsNameSize The new size of the file system's name.
 	 */
 	public void setFsNameSize(int fsNameSize) {
+		detach();
 		this.fsNameSize = fsNameSize;
 	}
 
@@ -216,7 +303,7 @@ public class IpfFileAttributes implements BasicFileAttributes {
 	 * @return the file system's name.
 	 */
 	public String getFsName() {
-		return fsName;
+		return table != null ? table.getFsName(index) : fsName;
 	}
 
 	/**
@@ -225,6 +312,7 @@ public class IpfFileAttributes implements BasicFileAttributes {
 	 * @param fsName The new file system's name.
 	 */
 	public void setFsName(String fsName) {
+		detach();
 		this.fsName = fsName;
 	}
 
@@ -236,7 +324,7 @@ public class IpfFileAttributes implements BasicFileAttributes {
 	 * @return the file path.
 	 */
 	public String getPath() {
-		return path;
+		return table != null ? table.getPath(index) : path;
 	}
 
 	/**
@@ -245,6 +333,7 @@ public class IpfFileAttributes implements BasicFileAttributes {
 	 * @param path The new file path.
 	 */
 	public void setPath(String path) {
+		detach();
 		this.path = path;
 	}
 }
@@ -1,6 +1,7 @@
 package com.herestt.tos.nio.ipffs;
 
 import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.FileStore;
 import java.nio.file.attribute.FileAttributeView;
 import java.nio.file.attribute.FileStoreAttributeView;
@@ -8,11 +9,26 @@ import java.nio.file.attribute.FileStoreAttributeView;
 /**
  * Describes the information data about an <code>.ipf</code> file.
  * 
+ * <p>This information is read from the footer that ends the file, which is made of :
+ * 		<ul>
+ * 			<li>the count of stored files (2 bytes);</li>
+ * 			<li>the offset of the file list (4 bytes);</li>
+ * 			<li>an unknown value (2 bytes);</li>
+ * 			<li>the offset of the footer (4 bytes);</li>
+ * 			<li>the magic number (4 bytes);</li>
+ * 			<li>the revision the file is based on (4 bytes);</li>
+ * 			<li>the revision of the file (4 bytes).</li>
+ * 		</ul>
+ * </p>
+ * 
  * @author Herestt
  *
  */
 public class IpfFileStore extends FileStore {
 
+	/** The size of the footer that ends every <code>.ipf</code> file. */
+	protected static final int FOOTER_SIZE = 24;
+
 	/** The <code>.ipf</code> file.*/
 	private String name;
 	
@@ -24,13 +40,60 @@ public class IpfFileStore extends FileStore {
 	
 	/** The magic number that identifies <code>.ipf</code> files*/
 	private byte[] magicNumber;
+	
+	/** The revision the <code>.ipf</code> file is based on. */
+	private long baseRevision;
+	
+	/** The revision of the <code>.ipf</code> file. */
+	private long revision;
 
 	protected IpfFileStore(String name, long fileCount, long listOffset,
 			byte[] magicNumber) {
+		this(name, fileCount, listOffset, magicNumber, 0, 0);
+	}
+
+	protected IpfFileStore(String name, long fileCount, long listOffset,
+			byte[] magicNumber, long baseRevision, long revision) {
 		this.name = name;
 		this.fileCount = fileCount;
 		this.listOffset = listOffset;
 		this.magicNumber = magicNumber;
+		this.baseRevision = baseRevision;
+		this.revision = revision;
+	}
+
+	/**
+	 * Reads the footer of an <code>.ipf</code> file.
+	 * 
+	 * @param name The name of the <code>.ipf</code> file.
+	 * @param sbc A channel connected to the <code>.ipf</code> file, which is moved by this method.
+	 * @return the file store described by the footer.
+	 * 
+	 * @throws IOException - if an I/O error occurs.
+	 */
+	protected static IpfFileStore read(String name, SeekableByteChannel sbc) throws IOException {
+		return read(name, sbc, sbc.size());
+	}
+
+	/**
+	 * Reads the footer ending at a given position of an <code>.ipf</code> file.
+	 * 
+	 * @param name The name of the <code>.ipf</code> file.
+	 * @param sbc A channel connected to the <code>.ipf</code> file, which is moved by this method.
+	 * @param end The position right after the footer.
+	 * @return the file store described by the footer.
+	 * 
+	 * @throws IOException - if an I/O error occurs.
+	 */
+	protected static IpfFileStore read(String name, SeekableByteChannel sbc, long end) throws IOException {
+		IpfByteReader reader = new IpfByteReader(sbc);
+		reader.position(end - FOOTER_SIZE);
+		return new IpfFileStore(name,
+				reader.readUnsignedShort(),
+				reader.readUnsignedInt(),
+				reader.skip(6).readBytes(4),
+				reader.readUnsignedInt(),
+				reader.readUnsignedInt());
 	}
 
 	@Override
@@ -122,4 +185,24 @@ public class IpfFileStore extends FileStore {
 	public byte[] getMagicNumber() {
 		return magicNumber;
 	}
+
+	/**
+	 * Gets the revision the <code>.ipf</code> file is based on.
+	 * 
+	 * @return the base revision.
+	 */
+	public long getBaseRevision() {
+		return baseRevision;
+	}
+
+	/**
+	 * Gets the revision of the <code>.ipf</code> file.
+	 * 
+	 * Patch files are applied by increasing revision.
+	 * 
+	 * @return the revision.
+	 */
+	public long getRevision() {
+		return revision;
+	}
 }
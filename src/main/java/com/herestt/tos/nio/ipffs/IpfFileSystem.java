@@ -1,34 +1,51 @@
 package com.herestt.tos.nio.ipffs;
 
+import java.io.EOFException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedFileSystemException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileStore;
 import java.nio.file.FileSystem;
+import java.nio.file.FileSystemException;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.ReadOnlyFileSystemException;
 import java.nio.file.StandardOpenOption;
 import java.nio.file.WatchService;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileAttribute;
 import java.nio.file.attribute.UserPrincipalLookupService;
 import java.nio.file.spi.FileSystemProvider;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.UnaryOperator;
+import java.util.zip.CRC32;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
+import java.util.zip.ZipException;
 
-import com.herestt.common.io.FileContent;
 
 /**
  * A IPF file system implementation.
@@ -65,7 +82,9 @@ import com.herestt.common.io.FileContent;
  * Path out = Paths.get("C:\\Users\\MyAccount\\Desktop\\ability.ies");
  * Files.copy(source, out);
  * }
- * </pre></p>
+ * </pre>
+ * An {@link IpfContentMode} can be given to the copy of the provider, so that stored files, or every
+ * file, are transferred as held by the '.ipf' file instead of being inflated.</p>
  * 
  * <p>Finally, to read a file through a {@link SeekableByteChannel} :
  * <pre>
@@ -73,7 +92,63 @@ import com.herestt.common.io.FileContent;
  * StandardOpenOption.READ, StandardOpenOption.DELETE_ON_CLOSE)) {
  *	// code...
  * }
- * </pre></p>
+ * </pre>
+ * Given {@link IpfContentMode#RAW} as an option, a read-only channel serves the compressed content
+ * of the file instead, without inflating it.</p>
+ * 
+ * <p>The behaviour of the file system can be tuned through the <code>env</code> map given to
+ * {@link IpfFileSystemProvider#newFileSystem(Path, Map)}. Values can either be given as objects
+ * or as strings :
+ * 	<ul>
+ * 		<li><code>{@value #ENV_MMAP}</code> (boolean, <code>false</code>) : maps the '.ipf' file into memory once,
+ * 		so that compressed contents are read from the page cache without any copy.</li>
+ * 		<li><code>{@value #ENV_MEMORY_THRESHOLD}</code> (long, 1MB) : the size under which read-only channels
+ * 		serve the inflated content from memory instead of dumping it into a temporary file.</li>
+ * 		<li><code>{@value #ENV_SEEK_INDEX}</code> (boolean, <code>false</code>) : records an {@link IpfSeekIndex}
+ * 		the first time a large file is entirely read, so that later seeks into its content resume near
+ * 		the targeted position.</li>
+ * 		<li><code>{@value #ENV_SEEK_INDEX_SPACING}</code> (long, 1MB) : the minimal count of inflated bytes
+ * 		between two checkpoints of a seek index.</li>
+ * 		<li><code>{@value #ENV_INFLATER_POOL_SIZE}</code> (int, twice the processor count) : the maximum count of
+ * 		idle {@link Inflater}s kept for reuse by the file system.</li>
+ * 		<li><code>{@value #ENV_CACHE_SIZE}</code> (long, 0) : the byte budget of an {@link IpfContentCache} keeping
+ * 		the inflated content of the files read through read-only channels; zero disables the cache.</li>
+ * 		<li><code>{@value #ENV_OFF_HEAP_CACHE_SIZE}</code> (long, 0) : the byte budget of a second cache level
+ * 		keeping the contents into direct buffers, out of the Java heap. Contents evicted from the heap cache
+ * 		are demoted to it; if the heap cache is disabled, contents are cached off-heap directly.</li>
+ * 		<li><code>{@value #ENV_VERIFY_CRC}</code> (boolean, <code>false</code>) : checks the inflated content of
+ * 		each file against its CRC-32 when it is dumped, read through a channel or extracted. A mismatch
+ * 		raises a {@link ZipException}. Channels only check files that are read sequentially up to their end.</li>
+ * 		<li><code>{@value #ENV_WRITABLE}</code> (boolean, <code>false</code>) : allows the stored files to be
+ * 		written, created, deleted and moved, as described below.</li>
+ * 		<li><code>{@value #ENV_INDEX}</code> (boolean, <code>false</code>) : loads the file table from an
+ * 		{@link IpfIndexFile} instead of parsing the file list, and writes the index file when it is missing
+ * 		or stale.</li>
+ * 		<li><code>{@value #ENV_INDEX_DIRECTORY}</code> (path, none) : the directory holding the index files;
+ * 		by default, each index file is written next to its '.ipf' file.</li>
+ * 		<li><code>{@value #ENV_LAZY}</code> (boolean, <code>false</code>) : only reads the footer when the file
+ * 		system is mounted, so that its {@link IpfFileStore} is available at once. The file list is parsed,
+ * 		and the '.ipf' file mapped, by the first access to a file or a directory. Ignored by writable file
+ * 		systems.</li>
+ * 	</ul>
+ * </p>
+ * 
+ * <p>A writable file system appends the content of each written file, once deflated, after the
+ * end of the '.ipf' file : the content of the other files is never written again, so modifying a
+ * single file only costs the size of that file. The new file list and footer are written after the
+ * appended contents when the file system is closed, the former file list being left behind until
+ * the '.ipf' file is repacked. Until then, the '.ipf' file can't be read by anything else, but its
+ * former file list and footer are never overwritten : if the file system isn't closed properly, the
+ * former '.ipf' file is recovered by truncating the file to its size before the first write. A
+ * failure while writing the new file list does so itself. Moving or deleting a file only changes the file list.
+ * As IPF file systems don't store any directory, created directories are lost once closed unless
+ * they hold a file.</p>
+ * 
+ * <p>The table read by the lookups of a writable file system is never modified in place : the
+ * modifications are applied to a table of their own, and the first lookup following them publishes
+ * a new {@link Snapshot} holding a copy of that table and its directory tree. A batch of modifications
+ * therefore costs a single copy of the file list, and the attributes and the directory streams
+ * obtained before a change stay consistent.</p>
  * 
  * <p><b>Note :</b> All the stored files are compressed by using the <code>PKZip</code> algorithm. 
  * Therefore this file system is in charge of the extraction when a file is dumped or when a channel
@@ -84,20 +159,136 @@ import com.herestt.common.io.FileContent;
  */
 public class IpfFileSystem extends FileSystem {
 
+	/** The <code>env</code> key enabling the memory-mapped read path. */
+	public static final String ENV_MMAP = "mmap";
+	
+	/** The <code>env</code> key setting the size under which channels are served from memory. */
+	public static final String ENV_MEMORY_THRESHOLD = "memoryThreshold";
+	
+	/** The <code>env</code> key enabling the seek indexes. */
+	public static final String ENV_SEEK_INDEX = "seekIndex";
+	
+	/** The <code>env</code> key setting the spacing between the checkpoints of the seek indexes. */
+	public static final String ENV_SEEK_INDEX_SPACING = "seekIndexSpacing";
+	
+	/** The <code>env</code> key setting the capacity of the inflater pool. */
+	public static final String ENV_INFLATER_POOL_SIZE = "inflaterPoolSize";
+	
+	/** The <code>env</code> key setting the byte budget of the content cache. */
+	public static final String ENV_CACHE_SIZE = "cacheSize";
+	
+	/** The <code>env</code> key setting the byte budget of the off-heap content cache. */
+	public static final String ENV_OFF_HEAP_CACHE_SIZE = "offHeapCacheSize";
+	
+	/** The <code>env</code> key enabling the CRC-32 check of inflated contents. */
+	public static final String ENV_VERIFY_CRC = "verifyCrc";
+	
+	/** The <code>env</code> key allowing the stored files to be modified. */
+	public static final String ENV_WRITABLE = "writable";
+	
+	/** The <code>env</code> key enabling the sidecar index files. */
+	public static final String ENV_INDEX = "index";
+	
+	/** The <code>env</code> key setting the directory of the sidecar index files. */
+	public static final String ENV_INDEX_DIRECTORY = "indexDirectory";
+	
+	/** The <code>env</code> key deferring the parsing of the file list to the first lookup. */
+	public static final String ENV_LAZY = "lazy";
+	
+	/** The size of the file regions covered by each mapping. */
+	private static final long SEGMENT_SIZE = 1L << 30;
+	
 	private final IpfFileSystemProvider provider;
 	private final Path fileSystemPath;
-	@SuppressWarnings("unused")
 	private final Map<String, ?> env;
-	private Set<FileStore> fileStores;
-	private boolean open = false;
+	private volatile Set<FileStore> fileStores;
+	private volatile boolean open = true;
+	
+	/** Determines whether the file system is being closed, its channels storing their content. */
+	private boolean closing = false;
 	private Set<SeekableByteChannel> channels;
 	
+	/** The stored files and their directory tree, or <code>null</code> until a lazy mount is loaded. */
+	private volatile Snapshot snapshot;
+	
+	private final boolean writable;
+	
+	/** The directories created empty, which aren't held by any file. */
+	private final Set<String> directories = new HashSet<>();
+	
+	/** The writer appending the modified contents, opened on the first write. */
+	private volatile IpfArchiveWriter writer;
+	
+	/** Determines whether the file list has to be written when the file system is closed. */
+	private boolean modified = false;
+	
+	/** The table the modifications are applied to, or <code>null</code> until the first one. */
+	private IpfFileTable modifiedTable;
+	
+	/** The directory tree of {@link #modifiedTable}, kept up to date by the modifications. */
+	private IpfDirectoryTree modifiedTree;
+	
+	/** The mappings of the '.ipf' file, or <code>null</code> when the file isn't mapped. */
+	private volatile MappedByteBuffer[] segments;
+	
+	/** The size under which read-only channels are served from memory. */
+	private final long memoryThreshold;
+	
+	/** The complete seek indexes, keyed by the offset of the file content. */
+	private final Map<Long, IpfSeekIndex> seekIndexes = new ConcurrentHashMap<>();
+	
+	private final boolean seekIndexEnabled;
+	private final long seekIndexSpacing;
+	
+	private final IpfInflaterPool inflaterPool;
+	private final boolean crcVerified;
+	
+	/** The cache of inflated contents, or <code>null</code> if disabled. */
+	private final IpfContentCache cache;
+	
+	/** The off-heap cache the contents evicted from {@link #cache} are demoted to, or <code>null</code> if disabled. */
+	private final IpfContentCache offHeapCache;
+	private final IpfFileSystemMetrics metrics;
+	
+	protected IpfFileSystem(IpfFileSystemProvider provider,
+			Path fileSystemPath, Map<String, ?> env) throws IOException {
+		this(provider, fileSystemPath, env, null);
+	}
+	
+	/**
+	 * Creates a file system over an already built file table.
+	 * 
+	 * @param provider The provider.
+	 * @param fileSystemPath The path of the file system.
+	 * @param env The file system properties.
+	 * @param table The file table, or <code>null</code> to parse the one of the '.ipf' file.
+	 * 
+	 * @throws IOException - if an I/O error occurs.
+	 */
 	protected IpfFileSystem(IpfFileSystemProvider provider,
-			Path fileSystemPath, Map<String, ?> env) {
+			Path fileSystemPath, Map<String, ?> env, IpfFileTable table) throws IOException {
 		this.provider = provider;
 		this.fileSystemPath = fileSystemPath;
 		this.env = env;
 		channels = Collections.synchronizedSet(new HashSet<>());
+		writable = getBoolean(ENV_WRITABLE, false);
+		if(table != null)
+			snapshot = new Snapshot(table, new IpfDirectoryTree(table));
+		else if(!writable && getBoolean(ENV_LAZY, false))
+			fileStores = Collections.singleton(readFileStore());
+		else
+			load();
+		memoryThreshold = getLong(ENV_MEMORY_THRESHOLD, 1 << 20);
+		seekIndexEnabled = getBoolean(ENV_SEEK_INDEX, false);
+		seekIndexSpacing = getLong(ENV_SEEK_INDEX_SPACING, 1 << 20);
+		inflaterPool = new IpfInflaterPool((int) getLong(ENV_INFLATER_POOL_SIZE,
+				Runtime.getRuntime().availableProcessors() * 2));
+		crcVerified = getBoolean(ENV_VERIFY_CRC, false);
+		long offHeapCacheSize = getLong(ENV_OFF_HEAP_CACHE_SIZE, 0);
+		offHeapCache = offHeapCacheSize > 0 ? new IpfContentCache(offHeapCacheSize, true, null) : null;
+		long cacheSize = getLong(ENV_CACHE_SIZE, 0);
+		cache = cacheSize > 0 ? new IpfContentCache(cacheSize, false, offHeapCache) : null;
+		metrics = new IpfFileSystemMetrics(this);
 	}
 
 	@Override
@@ -105,16 +296,64 @@ public class IpfFileSystem extends FileSystem {
 		return provider;
 	}
 
+	/**
+	 * Closes the file system.
+	 * 
+	 * <p>The opened channels are closed first, so that the written ones store their content. The
+	 * file system is then marked as closed, and the file list written if needed, under the same lock
+	 * as the modifications : no modification can happen once the file list has been written.</p>
+	 * 
+	 * @throws IOException - if an I/O error occurs.
+	 */
 	@Override
 	public void close() throws IOException {
-		if(!isOpen())
-			return;
+		synchronized (this) {
+			if(!open || closing)
+				return;
+			closing = true;
+		}
+		provider.removeFileSystem(this);
 		if(channels.size() > 0) {
-			for(SeekableByteChannel sbc : channels)
+			List<SeekableByteChannel> opened;
+			synchronized (channels) {
+				opened = new ArrayList<>(channels);
+			}
+			for(SeekableByteChannel sbc : opened)
 				if(sbc.isOpen())
 					sbc.close();
 			channels.clear();
 		}
+		try {
+			synchronized (this) {
+				open = false;
+				try {
+					if(modified)
+						writer().finish(modifiedTable);
+				} catch (IOException | RuntimeException e) {
+					// The writer is only missing if the '.ipf' file couldn't be opened : nothing was written.
+					if(writer != null) {
+						try {
+							writer.rollback();
+						} catch (IOException suppressed) {
+							e.addSuppressed(suppressed);
+						}
+					}
+					throw e;
+				} finally {
+					if(writer != null)
+						writer.close();
+					writer = null;
+				}
+			}
+		} finally {
+			segments = null;
+			seekIndexes.clear();
+			inflaterPool.clear();
+			if(cache != null)
+				cache.clear();
+			if(offHeapCache != null)
+				offHeapCache.clear();
+		}
 	}
 
 	@Override
@@ -124,7 +363,7 @@ public class IpfFileSystem extends FileSystem {
 
 	@Override
 	public boolean isReadOnly() {
-		return true;
+		return !writable;
 	}
 
 	@Override
@@ -134,7 +373,7 @@ public class IpfFileSystem extends FileSystem {
 
 	@Override
 	public Iterable<Path> getRootDirectories() {
-		throw new UnsupportedOperationException();
+		return Collections.singleton(getPath(IpfDirectoryTree.ROOT));
 	}
 
 	@Override
@@ -190,6 +429,485 @@ public class IpfFileSystem extends FileSystem {
 		return fileSystemPath;
 	}
 	
+	/**
+	 * Gets the runtime statistics of this file system.
+	 * 
+	 * @return the metrics.
+	 */
+	public IpfFileSystemMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * Extracts every stored file into a directory of the default file system.
+	 * 
+	 * <p>The files are read by increasing offset and inflated in parallel on the executor
+	 * given by the options. The directory structure of the file system is recreated under
+	 * the target directory.</p>
+	 * 
+	 * @param targetDir The directory to extract the files to.
+	 * @param options The extraction options, or <code>null</code> for the default ones.
+	 * @return a report describing the extraction.
+	 * 
+	 * @throws IOException - if a file couldn't be extracted.
+	 */
+	public IpfExtractReport extractAll(Path targetDir, IpfExtractOptions options) throws IOException {
+		if(targetDir.getFileSystem() != FileSystems.getDefault())
+			throw new IllegalArgumentException("The target directory must be hosted into the default file system.");
+		return new IpfExtractor(this, targetDir, options == null ? new IpfExtractOptions() : options).run();
+	}
+	
+	/**
+	 * Checks the CRC-32 of every stored file.
+	 * 
+	 * <p>Every file is inflated in parallel on the given executor, by increasing offset, and 
+	 * its CRC-32 is compared to the one of the file list. Files whose content is corrupted 
+	 * don't stop the verification : they are listed by the report.</p>
+	 * 
+	 * @param executor The executor the files are inflated on, or <code>null</code> for the common pool.
+	 * @return a report listing the corrupted files.
+	 * 
+	 * @throws IOException - if the '.ipf' file couldn't be read.
+	 */
+	public IpfVerifyReport verify(Executor executor) throws IOException {
+		return new IpfVerifier(this, executor == null ? ForkJoinPool.commonPool() : executor).run();
+	}
+
+	/**
+	 * Writes the current version of every stored file into a new, compact '.ipf' file.
+	 *
+	 * <p>The contents left behind by replaced or deleted files are dropped, and an overlay is
+	 * merged into a single '.ipf' file. Unchanged contents are copied without being recompressed,
+	 * while the replacements given by the options are deflated in parallel.</p>
+	 *
+	 * @param target The path of the new '.ipf' file, which mustn't exist.
+	 * @param options The repacking options, or <code>null</code> for the default ones.
+	 * @return a report describing the repacking.
+	 *
+	 * @throws IOException - if an I/O error occurs.
+	 *
+	 * @see IpfRepacker
+	 */
+	public IpfRepackReport repack(Path target, IpfRepackOptions options) throws IOException {
+		if(target.getFileSystem() != FileSystems.getDefault())
+			throw new IllegalArgumentException("The target must be hosted into the default file system.");
+		return new IpfRepacker(this, target, options == null ? new IpfRepackOptions() : options).run();
+	}
+
+	/**
+	 * Gets the current version of the stored files.
+	 * 
+	 * <p>The file list of a lazy mount is parsed by the first call, and the modifications of a
+	 * writable file system are published by the first call following them. The callers allowed to
+	 * throw an {@link IOException} use {@link #loadSnapshot()} instead. The callers reading both the
+	 * table and the directory tree read them from the same snapshot.</p>
+	 * 
+	 * @return the snapshot of the stored files.
+	 * 
+	 * @throws UncheckedIOException - if the file list of a lazy mount couldn't be parsed.
+	 * @throws ClosedFileSystemException - if the file system is closed.
+	 */
+	protected Snapshot getSnapshot() {
+		checkOpen();
+		Snapshot snapshot = this.snapshot;
+		if(snapshot != null)
+			return snapshot;
+		synchronized (this) {
+			if(this.snapshot == null && modifiedTable != null)
+				publish();
+			else if(this.snapshot == null) {
+				try {
+					load();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+			return this.snapshot;
+		}
+	}
+	
+	/**
+	 * Gets the table of the stored files.
+	 * 
+	 * @return the file table of the current snapshot.
+	 * 
+	 * @throws UncheckedIOException - if the file list of a lazy mount couldn't be parsed.
+	 * @throws ClosedFileSystemException - if the file system is closed.
+	 * 
+	 * @see #getSnapshot()
+	 */
+	protected IpfFileTable getTable() {
+		return getSnapshot().getTable();
+	}
+	
+	/**
+	 * Gets the file system holding the content of a file.
+	 * 
+	 * @param attrs The attributes of the file.
+	 * @return the file system whose '.ipf' file holds the content.
+	 */
+	protected IpfFileSystem owner(IpfFileAttributes attrs) {
+		return this;
+	}
+	
+	/**
+	 * Gets the directory hierarchy of the stored files.
+	 * 
+	 * @return the directory tree of the current snapshot.
+	 * 
+	 * @throws UncheckedIOException - if the file list of a lazy mount couldn't be parsed.
+	 * @throws ClosedFileSystemException - if the file system is closed.
+	 * 
+	 * @see #getSnapshot()
+	 */
+	protected IpfDirectoryTree getDirectoryTree() {
+		return getSnapshot().getTree();
+	}
+	
+	/**
+	 * Gets the current version of the stored files, for the callers allowed to throw an {@link IOException}.
+	 * 
+	 * @return the snapshot of the stored files.
+	 * 
+	 * @throws IOException - if the file list of a lazy mount couldn't be parsed.
+	 */
+	protected Snapshot loadSnapshot() throws IOException {
+		try {
+			return getSnapshot();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+	
+	/**
+	 * Gets the table of the stored files, for the callers allowed to throw an {@link IOException}.
+	 * 
+	 * @return the file table of the current snapshot.
+	 * 
+	 * @throws IOException - if the file list of a lazy mount couldn't be parsed.
+	 */
+	protected IpfFileTable loadTable() throws IOException {
+		return loadSnapshot().getTable();
+	}
+	
+	/**
+	 * Gets the directory hierarchy of the stored files, for the callers allowed to throw an
+	 * {@link IOException}.
+	 * 
+	 * @return the directory tree of the current snapshot.
+	 * 
+	 * @throws IOException - if the file list of a lazy mount couldn't be parsed.
+	 */
+	protected IpfDirectoryTree loadDirectoryTree() throws IOException {
+		return loadSnapshot().getTree();
+	}
+	
+	/**
+	 * Determines whether the '.ipf' file is mapped into memory.
+	 * 
+	 * @return <code>true</code> if the file system is mapped.
+	 */
+	protected boolean isMapped() {
+		return segments != null;
+	}
+	
+	/**
+	 * Gets the size under which contents are inflated at once into memory.
+	 * 
+	 * @return the memory threshold.
+	 */
+	protected long getMemoryThreshold() {
+		return memoryThreshold;
+	}
+	
+	/**
+	 * Gets the pool the inflaters are borrowed from.
+	 * 
+	 * @return the inflater pool.
+	 */
+	protected IpfInflaterPool getInflaterPool() {
+		return inflaterPool;
+	}
+	
+	/**
+	 * Determines whether inflated contents are checked against their CRC-32.
+	 * 
+	 * @return <code>true</code> if the CRC check is enabled.
+	 */
+	protected boolean isCrcVerified() {
+		return crcVerified;
+	}
+	
+	/**
+	 * Checks an inflated content against the CRC-32 of its file.
+	 * 
+	 * @param attrs The attributes of the file.
+	 * @param content The inflated content, from its position to its limit.
+	 * 
+	 * @throws ZipException - if the checksums don't match.
+	 */
+	protected static void checkCrc(IpfFileAttributes attrs, ByteBuffer content) throws ZipException {
+		CRC32 crc = new CRC32();
+		crc.update(content);
+		checkCrc(attrs, crc.getValue());
+	}
+	
+	/**
+	 * Checks a computed checksum against the CRC-32 of a file.
+	 * 
+	 * @param attrs The attributes of the file.
+	 * @param crc The checksum of the inflated content.
+	 * 
+	 * @throws ZipException - if the checksums don't match.
+	 */
+	protected static void checkCrc(IpfFileAttributes attrs, long crc) throws ZipException {
+		if(crc != attrs.getCrc())
+			throw new ZipException(String.format("Invalid CRC-32 for %s (expected %08x, got %08x)",
+					attrs.getPath(), attrs.getCrc(), crc));
+	}
+	
+	/**
+	 * Gets the cache of inflated contents.
+	 * 
+	 * @return the content cache, or <code>null</code> if disabled.
+	 */
+	protected IpfContentCache getContentCache() {
+		return cache;
+	}
+	
+	/**
+	 * Gets the off-heap cache of inflated contents.
+	 * 
+	 * @return the off-heap content cache, or <code>null</code> if disabled.
+	 */
+	protected IpfContentCache getOffHeapContentCache() {
+		return offHeapCache;
+	}
+	
+	/*** Modifications ***/
+	
+	/**
+	 * Checks that the file system is still open.
+	 * 
+	 * @throws ClosedFileSystemException - if the file system is closed.
+	 */
+	private void checkOpen() {
+		if(!open)
+			throw new ClosedFileSystemException();
+	}
+	
+	/**
+	 * Checks that the file system can be modified. Called under the lock of the file system, like
+	 * {@link #close()} marks it as closed.
+	 * 
+	 * @throws ClosedFileSystemException - if the file system is closed.
+	 * @throws ReadOnlyFileSystemException - if the file system is read-only.
+	 */
+	private void checkWritable() {
+		checkOpen();
+		if(isReadOnly())
+			throw new ReadOnlyFileSystemException();
+	}
+	
+	private IpfArchiveWriter writer() throws IOException {
+		if(writer == null)
+			writer = IpfArchiveWriter.append(fileSystemPath);
+		return writer;
+	}
+	
+	/**
+	 * Gets the table the modifications are applied to, copying the published one on the first call.
+	 * 
+	 * @return the modified table.
+	 */
+	private IpfFileTable modifiable() {
+		if(modifiedTable == null) {
+			modifiedTable = getTable().copy();
+			modifiedTree = tree(modifiedTable);
+		}
+		return modifiedTable;
+	}
+	
+	/**
+	 * Records a modification : the next lookup publishes a new snapshot.
+	 */
+	private void changed() {
+		snapshot = null;
+		fileStores = null;
+		modified = true;
+	}
+	
+	/**
+	 * Publishes a copy of the modified table, together with its directory tree.
+	 */
+	private void publish() {
+		IpfFileTable table = modifiedTable.copy();
+		snapshot = new Snapshot(table, tree(table));
+	}
+	
+	/**
+	 * Builds the directory tree of a table, including the directories created empty.
+	 */
+	private IpfDirectoryTree tree(IpfFileTable table) {
+		IpfDirectoryTree tree = new IpfDirectoryTree(table);
+		for(String dir : directories)
+			tree.addDirectory(dir);
+		return tree;
+	}
+	
+	/**
+	 * Replaces the modified table by a copy without a file, renaming the other ones.
+	 * 
+	 * <p>The position of the files following the removed one changes. The content caches are kept :
+	 * their keys include the offset of each content, which is never rewritten.</p>
+	 * 
+	 * @param removed The position of the file to remove, or <code>-1</code>.
+	 * @param rename Gives the new path of each file.
+	 */
+	private void rebuild(int removed, UnaryOperator<String> rename) {
+		IpfFileTable table = modifiedTable;
+		IpfFileTable updated = new IpfFileTable(table.size());
+		for(int i = 0; i < table.size(); i++)
+			if(i != removed)
+				updated.add(table.getCrc(i), table.getCompressedSize(i), table.getSize(i), table.getOffset(i),
+						table.getFsName(i), rename.apply(table.getPath(i)).getBytes(StandardCharsets.UTF_8));
+		modifiedTable = updated;
+		modifiedTree = tree(updated);
+	}
+	
+	private static String absolute(IpfPath path) {
+		return path.toAbsolutePath().normalize().toString();
+	}
+	
+	private static String parentOf(String path) {
+		int index = path.lastIndexOf('/');
+		return index <= 0 ? IpfDirectoryTree.ROOT : path.substring(0, index);
+	}
+	
+	/**
+	 * Deflates a content and stores it, replacing the file if it already exists.
+	 * 
+	 * @param file The file to write.
+	 * @param content The file holding the new content, in the default file system.
+	 * 
+	 * @throws IOException - if an I/O error occurs.
+	 */
+	protected synchronized void write(IpfPath file, Path content) throws IOException {
+		checkWritable();
+		IpfFileTable table = modifiable();
+		String path = absolute(file);
+		if(path.equals(IpfDirectoryTree.ROOT) || (table.indexOf(path) < 0 && modifiedTree.isDirectory(path)))
+			throw new FileSystemException(path, null, "Is a directory");
+		String fsName = table.size() > 0 ? table.getFsName(0) : fileSystemPath.getFileName().toString();
+		IpfFileAttributes attrs;
+		try(FileChannel src = FileChannel.open(content, StandardOpenOption.READ)) {
+			attrs = writer().deflate(path.substring(1), fsName, src);
+		}
+		int count = table.size();
+		int i = table.put(attrs);
+		if(i == count)
+			modifiedTree.add(i, attrs.getPath());
+		directories.remove(parentOf(path));
+		changed();
+	}
+	
+	/**
+	 * Deletes a file, or an empty directory.
+	 * 
+	 * <p>The content of a deleted file is left into the '.ipf' file until it is repacked.</p>
+	 * 
+	 * @param file The file to delete.
+	 * 
+	 * @throws IOException - if the file doesn't exist or if the directory isn't empty.
+	 */
+	protected synchronized void delete(IpfPath file) throws IOException {
+		checkWritable();
+		String path = absolute(file);
+		int i = modifiable().indexOf(path);
+		IpfDirectoryTree tree = modifiedTree;
+		if(i >= 0) {
+			directories.add(parentOf(path));	// The parent directory outlives its last file.
+			rebuild(i, UnaryOperator.identity());
+			changed();
+			return;
+		}
+		if(!tree.isDirectory(path))
+			throw new NoSuchFileException(path);
+		if(path.equals(IpfDirectoryTree.ROOT))
+			throw new FileSystemException(path, null, "The root directory can't be deleted.");
+		if(!tree.getDirectories(path).isEmpty() || tree.getFiles(path).length > 0)
+			throw new DirectoryNotEmptyException(path);
+		directories.remove(path);
+		modifiedTree = tree(modifiedTable);
+		changed();
+	}
+	
+	/**
+	 * Moves a file or a directory, without moving any content.
+	 * 
+	 * @param source The file or directory to move.
+	 * @param target The new path.
+	 * @param replaceExisting <code>true</code> to replace an existing target file.
+	 * 
+	 * @throws IOException - if the source doesn't exist, or if the target can't be replaced.
+	 */
+	protected synchronized void move(IpfPath source, IpfPath target, boolean replaceExisting) throws IOException {
+		checkWritable();
+		String from = absolute(source);
+		String to = absolute(target);
+		if(from.equals(to))
+			return;
+		IpfFileTable table = modifiable();
+		IpfDirectoryTree tree = modifiedTree;
+		int i = table.indexOf(from);
+		int j = table.indexOf(to);
+		boolean targetIsDirectory = j < 0 && tree.isDirectory(to);
+		if(i < 0 && !tree.isDirectory(from))
+			throw new NoSuchFileException(from);
+		if(targetIsDirectory || (j >= 0 && (!replaceExisting || i < 0)))
+			throw new FileAlreadyExistsException(to);
+		if(i >= 0) {
+			String fromName = from.substring(1);
+			String toName = to.substring(1);
+			directories.add(parentOf(from));
+			rebuild(j, p -> p.equals(fromName) ? toName : p);
+			changed();
+			return;
+		}
+		if(from.equals(IpfDirectoryTree.ROOT) || to.startsWith(from + "/"))
+			throw new FileSystemException(from, to, "A directory can't be moved into itself.");
+		String fromPrefix = from.substring(1) + "/";
+		String toPrefix = to.substring(1) + "/";
+		Set<String> renamed = new HashSet<>();
+		for(String dir : directories)
+			renamed.add(dir.equals(from) ? to : dir.startsWith(from + "/") ? to + dir.substring(from.length()) : dir);
+		directories.clear();
+		directories.addAll(renamed);
+		directories.add(parentOf(from));
+		rebuild(-1, p -> p.startsWith(fromPrefix) ? toPrefix + p.substring(fromPrefix.length()) : p);
+		changed();
+	}
+	
+	/**
+	 * Creates a directory that doesn't hold any file.
+	 * 
+	 * @param dir The directory to create.
+	 * 
+	 * @throws IOException - if the path already exists, or if its parent doesn't.
+	 */
+	protected synchronized void createDirectory(IpfPath dir) throws IOException {
+		checkWritable();
+		IpfFileTable table = modifiable();
+		String path = absolute(dir);
+		if(table.indexOf(path) >= 0 || modifiedTree.isDirectory(path))
+			throw new FileAlreadyExistsException(path);
+		if(!modifiedTree.isDirectory(parentOf(path)))
+			throw new NoSuchFileException(parentOf(path));
+		directories.add(path);
+		modifiedTree.addDirectory(path);
+		changed();
+	}
+	
 	/**
 	 * Creates a set containing the file store instance.
 	 * 
@@ -203,17 +921,7 @@ public class IpfFileSystem extends FileSystem {
 	private Set<FileStore> createFileStoresSet() {
 		Set<FileStore> set = new HashSet<>();
 		try {
-			long headerOffset = Files.size(fileSystemPath) - 24;
-			try(SeekableByteChannel sbc = FileContent.access(fileSystemPath, headerOffset)) {
-				FileContent.order(ByteOrder.LITTLE_ENDIAN);
-				IpfFileStore ipffstore = new IpfFileStore(
-						fileSystemPath.getName(fileSystemPath.getNameCount() - 1).toString(),
-						FileContent.read().asUnsignedShort(),
-						FileContent.read().asUnsignedInt(),
-						FileContent.skip(4).read().asBytes(4)
-						);
-				set.add(ipffstore);
-			}
+			set.add(readFileStore());
 		} catch (IOException e) {
 			e.printStackTrace();	
 		}
@@ -221,7 +929,301 @@ public class IpfFileSystem extends FileSystem {
 	}
 	
 	/**
-	 * Gets the file attributes of a stored file.
+	 * Reads the footer of the '.ipf' file.
+	 * 
+	 * <p>Once contents have been appended, the footer read is the one left untouched before them.</p>
+	 * 
+	 * @return the file store described by the footer.
+	 * 
+	 * @throws IOException - if an I/O error occurs.
+	 */
+	private IpfFileStore readFileStore() throws IOException {
+		IpfArchiveWriter writer = this.writer;
+		try(SeekableByteChannel sbc = Files.newByteChannel(fileSystemPath)) {
+			long end = writer != null ? writer.getOriginalSize() : sbc.size();
+			return IpfFileStore.read(fileSystemPath.getFileName().toString(), sbc, end);
+		}
+	}
+	
+	/**
+	 * Parses the file list, builds the directory tree and maps the '.ipf' file if requested.
+	 * 
+	 * <p>The snapshot is published last, so that a non-null snapshot means that everything is loaded.</p>
+	 * 
+	 * @throws IOException - if an I/O error occurs.
+	 */
+	private void load() throws IOException {
+		IpfFileTable table = createTable();
+		IpfDirectoryTree tree = new IpfDirectoryTree(table);
+		if(getBoolean(ENV_MMAP, false))
+			segments = map(table);
+		snapshot = new Snapshot(table, tree);
+	}
+	
+	/**
+	 * Creates the table of the stored files.
+	 * 
+	 * <p>The file list is parsed once when the file system is created, so that
+	 * any later lookup doesn't have to access the '.ipf' file again.</p>
+	 * 
+	 * @return the file table.
+	 * 
+	 * @throws IOException - if an I/O error occurs.
+	 */
+	private IpfFileTable createTable() throws IOException {
+		if(!getBoolean(ENV_INDEX, false))
+			return parseTable();
+		Object directory = env.get(ENV_INDEX_DIRECTORY);
+		Path index = IpfIndexFile.resolve(fileSystemPath, directory == null ? null
+				: directory instanceof Path ? (Path) directory : Paths.get(directory.toString()));
+		ByteBuffer header = IpfIndexFile.header(fileSystemPath);
+		IpfFileTable table = IpfIndexFile.load(index, header);
+		if(table != null)
+			return table;
+		table = parseTable();
+		try {
+			IpfIndexFile.save(index, header, table);
+		} catch (IOException e) {
+			// The index file is only a shortcut : a mount never fails because of it.
+		}
+		return table;
+	}
+	
+	/**
+	 * Parses the file list of the '.ipf' file.
+	 * 
+	 * <p>The whole file list is read at once, then decoded in parallel by
+	 * {@link IpfFileTable#decode(ByteBuffer, int, ForkJoinPool)}.</p>
+	 * 
+	 * @return the file table.
+	 * 
+	 * @throws IOException - if an I/O error occurs.
+	 */
+	private IpfFileTable parseTable() throws IOException {
+		try(FileChannel fc = FileChannel.open(fileSystemPath, StandardOpenOption.READ)) {
+			IpfFileStore store = IpfFileStore.read(fileSystemPath.getFileName().toString(), fc);
+			long end = fc.size() - IpfFileStore.FOOTER_SIZE;
+			long listOffset = store.getListOffset();
+			if(listOffset > end || end - listOffset > Integer.MAX_VALUE)
+				throw new IOException("Invalid file list offset: " + listOffset);
+			ByteBuffer list = ByteBuffer.allocate((int) (end - listOffset));
+			while(list.hasRemaining())
+				if(fc.read(list, listOffset + list.position()) < 0)
+					throw new EOFException();
+			list.flip();
+			return IpfFileTable.decode(list, (int) store.getFileCount(), ForkJoinPool.commonPool());
+		}
+	}
+	
+	/**
+	 * Gets a boolean property from the <code>env</code> map.
+	 * 
+	 * @param key The property key.
+	 * @param defaultValue The value to return if the property isn't set.
+	 * @return the property value.
+	 */
+	protected boolean getBoolean(String key, boolean defaultValue) {
+		Object value = env == null ? null : env.get(key);
+		if(value == null)
+			return defaultValue;
+		if(value instanceof Boolean)
+			return (Boolean) value;
+		return Boolean.parseBoolean(value.toString());
+	}
+	
+	/**
+	 * Gets a long property from the <code>env</code> map.
+	 * 
+	 * @param key The property key.
+	 * @param defaultValue The value to return if the property isn't set.
+	 * @return the property value.
+	 */
+	protected long getLong(String key, long defaultValue) {
+		Object value = env == null ? null : env.get(key);
+		if(value == null)
+			return defaultValue;
+		if(value instanceof Number)
+			return ((Number) value).longValue();
+		return Long.parseLong(value.toString());
+	}
+	
+	/**
+	 * Registers a channel, so that it is closed with the file system.
+	 * 
+	 * @param sbc The channel.
+	 */
+	protected void register(SeekableByteChannel sbc) {
+		channels.add(sbc);
+	}
+	
+	/**
+	 * Unregisters a channel once it has been closed.
+	 * 
+	 * @param sbc The channel.
+	 */
+	protected void unregister(SeekableByteChannel sbc) {
+		channels.remove(sbc);
+	}
+	
+	/**
+	 * Determines whether seek indexes are recorded and used by the channels.
+	 * 
+	 * @return <code>true</code> if the seek indexes are enabled.
+	 */
+	protected boolean isSeekIndexEnabled() {
+		return seekIndexEnabled;
+	}
+	
+	/**
+	 * Gets the minimal count of inflated bytes between two checkpoints.
+	 * 
+	 * @return the seek index spacing.
+	 */
+	protected long getSeekIndexSpacing() {
+		return seekIndexSpacing;
+	}
+	
+	/**
+	 * Gets the cached seek index of a file.
+	 * 
+	 * @param attrs The attributes of the file.
+	 * @return the complete seek index, or <code>null</code> if it hasn't been recorded yet.
+	 */
+	protected IpfSeekIndex getSeekIndex(IpfFileAttributes attrs) {
+		return seekIndexes.get(attrs.getOffset());
+	}
+	
+	/**
+	 * Caches the seek index of a file.
+	 * 
+	 * @param attrs The attributes of the file.
+	 * @param index The complete seek index.
+	 */
+	protected void putSeekIndex(IpfFileAttributes attrs, IpfSeekIndex index) {
+		seekIndexes.putIfAbsent(attrs.getOffset(), index);
+	}
+	
+	/**
+	 * Maps the '.ipf' file into memory.
+	 * 
+	 * <p>A single mapping can't exceed 2GB, so the file is mapped by segments of {@link #SEGMENT_SIZE}
+	 * bytes. Each segment is extended by the largest compressed size of the table, so that the
+	 * content of any file is entirely held by the segment where it starts.</p>
+	 * 
+	 * @param table The file table.
+	 * @return the mapped segments.
+	 * 
+	 * @throws IOException - if an I/O error occurs.
+	 */
+	private MappedByteBuffer[] map(IpfFileTable table) throws IOException {
+		long maxCompressedSize = 0;
+		for(int i = 0; i < table.size(); i++)
+			maxCompressedSize = Math.max(maxCompressedSize, table.getCompressedSize(i));
+		try(FileChannel fc = FileChannel.open(fileSystemPath, StandardOpenOption.READ)) {
+			long fileSize = fc.size();
+			int count = (int) ((fileSize + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+			MappedByteBuffer[] mappings = new MappedByteBuffer[count];
+			for(int i = 0; i < count; i++) {
+				long position = i * SEGMENT_SIZE;
+				long length = Math.min(fileSize - position, SEGMENT_SIZE + maxCompressedSize);
+				mappings[i] = fc.map(FileChannel.MapMode.READ_ONLY, position, Math.min(length, Integer.MAX_VALUE));
+			}
+			return mappings;
+		}
+	}
+	
+	/**
+	 * Slices the compressed content of a stored file out of the mapping.
+	 * 
+	 * @param attrs The attributes of the file.
+	 * @return a read-only slice of the mapping, or <code>null</code> if the file system isn't
+	 * mapped or if the content isn't covered by a single mapping.
+	 */
+	protected ByteBuffer slice(IpfFileAttributes attrs) {
+		MappedByteBuffer[] mappings = segments;
+		if(mappings == null)
+			return null;
+		long offset = attrs.getOffset();
+		long length = attrs.getCompressedSize();
+		if(offset / SEGMENT_SIZE >= mappings.length)
+			return null;	// Appended after the file was mapped.
+		MappedByteBuffer segment = mappings[(int) (offset / SEGMENT_SIZE)];
+		int position = (int) (offset % SEGMENT_SIZE);
+		if(position + length > segment.capacity())
+			return null;
+		ByteBuffer slice = segment.duplicate();
+		slice.position(position).limit((int) (position + length));
+		return slice.slice().asReadOnlyBuffer();
+	}
+	
+	/**
+	 * Reads the compressed content of a stored file.
+	 * 
+	 * <p>When the file system is mapped, the returned buffer is a read-only slice of the mapping
+	 * and no byte is copied. Otherwise the content is read into a heap buffer.</p>
+	 * 
+	 * @param attrs The attributes of the file.
+	 * @return the compressed content, from its position to its limit.
+	 * 
+	 * @throws IOException - if an I/O error occurs.
+	 */
+	protected ByteBuffer readCompressed(IpfFileAttributes attrs) throws IOException {
+		ByteBuffer slice = slice(attrs);
+		if(slice != null)
+			return slice;
+		long offset = attrs.getOffset();
+		ByteBuffer buffer = ByteBuffer.allocate((int) attrs.getCompressedSize());
+		try(FileChannel fc = FileChannel.open(fileSystemPath, StandardOpenOption.READ)) {
+			while(buffer.hasRemaining())
+				if(fc.read(buffer, offset + buffer.position()) < 0)
+					throw new EOFException();
+		}
+		buffer.flip();
+		return buffer;
+	}
+	
+	/**
+	 * Transfers the content of a stored file, as held by the '.ipf' file, to a channel.
+	 * 
+	 * <p>The content is neither inflated nor read into memory : {@link FileChannel#transferTo(long, long, WritableByteChannel)}
+	 * lets the operating system copy it directly from the '.ipf' file.</p>
+	 * 
+	 * @param attrs The attributes of the file.
+	 * @param source A channel connected to the '.ipf' file holding the content.
+	 * @param target The channel to transfer the content to.
+	 * 
+	 * @throws IOException - if an I/O error occurs.
+	 */
+	protected static void transfer(IpfFileAttributes attrs, FileChannel source, WritableByteChannel target) throws IOException {
+		long position = 0;
+		long length = attrs.getCompressedSize();
+		while(position < length) {
+			long count = source.transferTo(attrs.getOffset() + position, length - position, target);
+			if(count <= 0)
+				throw new EOFException(attrs.getPath());
+			position += count;
+		}
+	}
+	
+	/**
+	 * Looks up the attributes of a stored file in the index.
+	 * 
+	 * @param path The file path.
+	 * @return the file attributes.
+	 * 
+	 * @throws FileNotFoundException - if the file isn't stored in this file system.
+	 * @throws IOException - if the file list of a lazy mount couldn't be parsed.
+	 */
+	protected IpfFileAttributes lookup(IpfPath path) throws IOException {
+		IpfFileTable table = loadTable();
+		int i = table.indexOf(path.toString());
+		if(i < 0)
+			throw new FileNotFoundException(path.toString());
+		return table.getAttributes(i);
+	}
+	
+	/**
+	 * Gets the file attributes of a stored file or of a directory.
 	 * 
 	 * @param path The file path.
 	 * @param type The type of attributes.
@@ -234,15 +1236,14 @@ public class IpfFileSystem extends FileSystem {
 			Class<A> type) throws IOException {
 		if(!(type == BasicFileAttributes.class || type == IpfFileAttributes.class))
 			throw new UnsupportedOperationException("Only IpfFileAttributes class is allowed.");
-		try(IpfDirectoryStream<IpfFileAttributes> stream = new IpfDirectoryStream<>(path, IpfFileAttributesIterator.class, null)) {
-			Iterator<IpfFileAttributes> it = stream.iterator();
-			while(it.hasNext()) {
-				IpfFileAttributes attrs = it.next();
-				if(path.toString().equals("/" + attrs.getPath()))
-					return (A) attrs;
-			}
-		} 
-		throw new FileNotFoundException();
+		Snapshot snapshot = path.getFileSystem().loadSnapshot();
+		String p = path.toString();
+		int i = snapshot.getTable().indexOf(p);
+		if(i < 0 && snapshot.getTree().isDirectory(p))
+			return (A) IpfFileAttributes.directory(p.length() > 1 ? p.substring(1) : "");
+		if(i < 0)
+			throw new FileNotFoundException(p);
+		return (A) snapshot.getTable().getAttributes(i);
 	}
 	
 	/**
@@ -250,24 +1251,89 @@ public class IpfFileSystem extends FileSystem {
 	 * 
 	 * IPF stored files are compressed by using the PKZip algorithm.
 	 * 
+	 * Both buffers can either be heap or direct buffers, so that mapped content
+	 * can be inflated without being copied first.
+	 * 
+	 * The content must fill the output exactly : a content that ends before the
+	 * output is full, or that doesn't end once it is, is rejected.
+	 * 
 	 * @param input The compressed content.
 	 * @param output The inflated content.
 	 * 
-	 * @throws IllegalArgumentException - if a buffer is direct.
-	 * @throws DataFormatException - if input data is not PKZip.
+	 * @throws DataFormatException - if input data is not PKZip, or if it is truncated or 
+	 * doesn't match the size of the output.
+	 */
+	protected void inflate(ByteBuffer input, ByteBuffer output) throws DataFormatException {
+		Inflater decompresser = inflaterPool.borrow();
+		try {
+			decompresser.setInput(input);
+			// Even an empty output is inflated into, so that the end of the content is reached.
+			while(!decompresser.finished())
+				if(decompresser.inflate(output) == 0 && (!output.hasRemaining()
+						|| decompresser.needsInput() || decompresser.needsDictionary()))
+					break;
+			if(output.hasRemaining())
+				throw new DataFormatException("Truncated content.");
+			if(!decompresser.finished())
+				throw new DataFormatException("Content larger than its size.");
+		} finally {
+			inflaterPool.release(decompresser);
+		}
+	}
+	
+	/**
+	 * Inflates the whole content of a stored file into memory.
+	 * 
+	 * @param attrs The attributes of the file.
+	 * @return the inflated content, from zero to its limit.
+	 * 
+	 * @throws IOException - if an I/O error occurs, or if the CRC check is enabled and fails.
+	 * @throws DataFormatException - if the content is not PKZip.
+	 */
+	protected ByteBuffer inflate(IpfFileAttributes attrs) throws IOException, DataFormatException {
+		ByteBuffer output = ByteBuffer.allocate((int) attrs.size());
+		inflate(readCompressed(attrs), output);
+		output.flip();
+		if(crcVerified)
+			checkCrc(attrs, output.duplicate());
+		return output;
+	}
+	
+	/**
+	 * Gets the whole inflated content of a file, from the content cache if possible.
+	 * 
+	 * <p>The heap cache is looked up first, then the off-heap one. Off-heap hits are returned as
+	 * read-only direct buffers, so their content is never copied back onto the heap. On a miss,
+	 * the content is inflated by the file system holding it, then cached.</p>
+	 * 
+	 * @param attrs The attributes of the file, as given by {@link #lookup(IpfPath)}.
+	 * @return the inflated content, from zero to its limit; it is read-only if it comes from the cache.
+	 * 
+	 * @throws IOException - if an I/O error occurs.
+	 * @throws DataFormatException - if the content is not PKZip.
 	 */
-	private static void inflate(ByteBuffer input, ByteBuffer output) throws DataFormatException {
-		if(input.isDirect() || output.isDirect())
-			throw new IllegalArgumentException();
-		Inflater decompresser = new Inflater(true);
-		decompresser.setInput(input.array());
-		decompresser.inflate(output.array());
-		decompresser.end();
+	protected ByteBuffer load(IpfFileAttributes attrs) throws IOException, DataFormatException {
+		Snapshot snapshot = this.snapshot;
+		if((cache == null && offHeapCache == null) || snapshot == null || attrs.getTable() != snapshot.getTable())
+			return owner(attrs).inflate(attrs);
+		long key = IpfContentCache.key(attrs);
+		ByteBuffer content = cache != null ? cache.get(key) : null;
+		if(content == null && offHeapCache != null)
+			content = offHeapCache.get(key);
+		if(content == null) {
+			content = owner(attrs).inflate(attrs);
+			(cache != null ? cache : offHeapCache).put(key, content);
+		}
+		return content;
 	}
 	
 	/**
 	 * Dumps a file against another file system's one.
 	 * 
+	 * <p>Files smaller than the memory threshold are inflated at once, while larger
+	 * ones are streamed through an {@link IpfInflaterChannel}, so that they are never
+	 * entirely held in memory.</p>
+	 * 
 	 * @param src The file to dump.
 	 * @param dest The target to copy the content to.
 	 * 
@@ -275,34 +1341,73 @@ public class IpfFileSystem extends FileSystem {
 	 * @throws DataFormatException 
 	 */
 	protected static void dump(IpfPath src, Path dest) throws IOException, DataFormatException {
+		dump(src, dest, IpfContentMode.INFLATE);
+	}
+	
+	/**
+	 * Dumps a file against another file system's one.
+	 * 
+	 * <p>When the mode doesn't inflate the file, its content is transferred from the '.ipf' 
+	 * file by {@link #transfer(IpfFileAttributes, FileChannel, WritableByteChannel)}.</p>
+	 * 
+	 * @param src The file to dump.
+	 * @param dest The target to copy the content to.
+	 * @param mode Determines whether the content is inflated.
+	 * 
+	 * @throws IOException - if an I/O error occurs.
+	 * @throws DataFormatException 
+	 */
+	protected static void dump(IpfPath src, Path dest, IpfContentMode mode) throws IOException, DataFormatException {
 		Path fs = src.getFileSystem().getFileSystemPath();
 		if(src == null || fs == null || dest == null
 				|| fs.getFileSystem() != FileSystems.getDefault()
 				|| dest.getFileSystem() != FileSystems.getDefault())
 			throw new IllegalArgumentException("The file ");
-		IpfFileAttributes attrs = getFileAttributes(src, IpfFileAttributes.class);
-		try(RandomAccessFile srcRaf = new RandomAccessFile(fs.toFile(), "r");
-				SeekableByteChannel srcSbc = srcRaf.getChannel();
-				RandomAccessFile raf = new RandomAccessFile(dest.toFile(), "rw");
+		IpfFileAttributes attrs = src.getFileSystem().lookup(src);
+		IpfFileSystem ipffs = src.getFileSystem().owner(attrs);
+		try(RandomAccessFile raf = new RandomAccessFile(dest.toFile(), "rw");
 				FileChannel destChannel = raf.getChannel()) {
 			
-			FileContent.access(srcSbc, attrs.getOffset());
-			FileContent.order(ByteOrder.LITTLE_ENDIAN);
-			ByteBuffer srcBuffer = ByteBuffer.wrap(FileContent.read().asBytes((int) attrs.getCompressedSize()));
-			ByteBuffer destBuffer = ByteBuffer.allocate((int) attrs.size());
-						
-			inflate(srcBuffer, destBuffer);
-			
-			destChannel.write(destBuffer);
+			if(mode.isTransferred(attrs)) {
+				try(FileChannel srcChannel = FileChannel.open(ipffs.getFileSystemPath(), StandardOpenOption.READ)) {
+					transfer(attrs, srcChannel, destChannel);
+				}
+				destChannel.truncate(attrs.getCompressedSize());
+				return;
+			}
+			if(attrs.size() < ipffs.memoryThreshold) {
+				ByteBuffer destBuffer = src.getFileSystem().load(attrs);
+				while(destBuffer.hasRemaining())
+					destChannel.write(destBuffer);
+			}
+			else {
+				try(IpfInflaterChannel srcChannel = new IpfInflaterChannel(ipffs, attrs)) {
+					long position = 0;
+					while(position < attrs.size()) {
+						long count = destChannel.transferFrom(srcChannel, position, attrs.size() - position);
+						if(count <= 0)
+							throw new EOFException();
+						position += count;
+					}
+				}
+			}
+			destChannel.truncate(attrs.size());
 		}
 	}
 	
 	/**
 	 * Accesses the content of a file through a {@link SeekableByteChannel}.
 	 * 
-	 * The file is dumped against a temporary file that is deleted when the 
+	 * <p>When the channel is read-only and the file is smaller than the memory threshold,
+	 * the content is inflated into memory and served by an {@link IpfByteBufferChannel}.
+	 * If the content cache is enabled, the content is taken from it, or added to it.
+	 * Larger files are inflated on demand by an {@link IpfInflaterChannel}. When an {@link IpfContentMode}
+	 * option doesn't inflate the file, its content is served as is by an {@link IpfRawChannel}.</p>
+	 * 
+	 * <p>Writable channels are dumped against a temporary file that is deleted when the 
 	 * {@link SeekableByteChannel} is closed. So mind using a try-with-resource
-	 * statement when using the function.
+	 * statement when using the function. If the channel has been written, its content is 
+	 * stored into the file system when it is closed.</p>
 	 * 
 	 * @param file The file to access.
 	 * @return A {@link SeekableByteChannel} connected the file.
@@ -311,16 +1416,83 @@ public class IpfFileSystem extends FileSystem {
 	 */
 	protected static SeekableByteChannel access(IpfPath file, Set<? extends OpenOption> options,
 			FileAttribute<?>... attrs) throws IOException {
+		boolean readOnly = !options.contains(StandardOpenOption.WRITE)
+				&& !options.contains(StandardOpenOption.APPEND);
+		IpfContentMode mode = IpfContentMode.INFLATE;
+		for(OpenOption option : options)
+			if(option instanceof IpfContentMode)
+				mode = (IpfContentMode) option;
+		if(readOnly) {
+			IpfFileAttributes ipffa = file.getFileSystem().lookup(file);
+			IpfFileSystem ipffs = file.getFileSystem().owner(ipffa);
+			SeekableByteChannel sbc;
+			if(mode.isTransferred(ipffa))
+				sbc = new IpfRawChannel(ipffs, ipffa);
+			else if(ipffa.size() < ipffs.memoryThreshold) {
+				try {
+					sbc = new IpfByteBufferChannel(ipffs, file.getFileSystem().load(ipffa));
+				} catch (DataFormatException e) {
+					throw new IOException(e);
+				}
+			}
+			else
+				sbc = new IpfInflaterChannel(ipffs, ipffa);
+			ipffs.register(sbc);
+			return sbc;
+		}
+		if(mode != IpfContentMode.INFLATE)
+			throw new IllegalArgumentException("Only inflated contents can be written: " + mode);
+		IpfFileSystem target = file.getFileSystem();
+		boolean exists;
+		synchronized (target) {
+			target.checkWritable();
+			exists = target.modifiable().indexOf(absolute(file)) >= 0;
+		}
+		if(exists && options.contains(StandardOpenOption.CREATE_NEW))
+			throw new FileAlreadyExistsException(file.toString());
+		if(!exists && !options.contains(StandardOpenOption.CREATE) && !options.contains(StandardOpenOption.CREATE_NEW))
+			throw new NoSuchFileException(file.toString());
 		String suffix = file.toString().replaceAll("/", "_");
 		Path tmp = Files.createTempFile("ipf", suffix, attrs);
 		try {
-			dump(file, tmp);
-			SeekableByteChannel sbc = new IpfSeekableByteChannelImpl(tmp, options);
-			file.getFileSystem().channels.add(sbc);
+			boolean truncated = options.contains(StandardOpenOption.TRUNCATE_EXISTING);
+			if(exists && !truncated)
+				dump(file, tmp);
+			SeekableByteChannel sbc = new IpfSeekableByteChannelImpl(tmp, options, file, !exists || truncated);
+			target.register(sbc);
 			return sbc;
 		} catch (DataFormatException e) {
-			Files.delete(file);
-			throw new IOException(); 
+			Files.delete(tmp);
+			throw new IOException(e); 
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(tmp);
+			throw e;
+		}
+	}
+	
+	/**
+	 * A version of the stored files : a table and the directory tree built from it.
+	 * 
+	 * <p>A snapshot is never modified once published. The modifications of a writable file system
+	 * are published as a new one, so that a reader holding a snapshot, such as a directory stream, never
+	 * pairs a table with the tree of another version.</p>
+	 */
+	protected static final class Snapshot {
+		
+		private final IpfFileTable table;
+		private final IpfDirectoryTree tree;
+		
+		private Snapshot(IpfFileTable table, IpfDirectoryTree tree) {
+			this.table = table;
+			this.tree = tree;
+		}
+		
+		protected IpfFileTable getTable() {
+			return table;
+		}
+		
+		protected IpfDirectoryTree getTree() {
+			return tree;
 		}
 	}
 }
\ No newline at end of file
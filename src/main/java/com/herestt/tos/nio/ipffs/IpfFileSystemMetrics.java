@@ -0,0 +1,203 @@
+package com.herestt.tos.nio.ipffs;
+
+/**
+ * Exposes the runtime statistics of an {@link IpfFileSystem}.
+ *
+ * <p>The values are read from the file system each time a getter is called, so a single
+ * instance can be kept and polled.</p>
+ *
+ * @author Herestt
+ *
+ */
+public class IpfFileSystemMetrics {
+
+	private final IpfFileSystem ipffs;
+
+	protected IpfFileSystemMetrics(IpfFileSystem ipffs) {
+		this.ipffs = ipffs;
+	}
+
+	/*** Inflater Pool ***/
+
+	/**
+	 * Gets the maximum count of idle inflaters kept by the file system.
+	 *
+	 * @return the inflater pool capacity.
+	 */
+	public int getInflaterPoolCapacity() {
+		return ipffs.getInflaterPool().getCapacity();
+	}
+
+	/**
+	 * Gets the current count of idle inflaters.
+	 *
+	 * @return the inflater pool size.
+	 */
+	public int getInflaterPoolSize() {
+		return ipffs.getInflaterPool().size();
+	}
+
+	/**
+	 * Gets the count of inflater borrowings served by the pool.
+	 *
+	 * @return the hit count.
+	 */
+	public long getInflaterPoolHits() {
+		return ipffs.getInflaterPool().getHits();
+	}
+
+	/**
+	 * Gets the count of inflater borrowings that required a new inflater.
+	 *
+	 * @return the miss count.
+	 */
+	public long getInflaterPoolMisses() {
+		return ipffs.getInflaterPool().getMisses();
+	}
+
+	/**
+	 * Gets the ratio of inflater borrowings served by the pool.
+	 *
+	 * @return the hit rate, between 0 and 1.
+	 */
+	public double getInflaterPoolHitRate() {
+		long hits = getInflaterPoolHits();
+		long total = hits + getInflaterPoolMisses();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	/*** Content Cache ***/
+
+	/**
+	 * Gets the byte budget of the content cache.
+	 *
+	 * @return the cache capacity, or zero if the cache is disabled.
+	 */
+	public long getCacheCapacity() {
+		IpfContentCache cache = ipffs.getContentCache();
+		return cache == null ? 0 : cache.getCapacity();
+	}
+
+	/**
+	 * Gets the count of bytes held by the content cache.
+	 *
+	 * @return the cache size.
+	 */
+	public long getCacheSize() {
+		IpfContentCache cache = ipffs.getContentCache();
+		return cache == null ? 0 : cache.getSize();
+	}
+
+	/**
+	 * Gets the count of contents held by the content cache.
+	 *
+	 * @return the cached entry count.
+	 */
+	public int getCacheEntryCount() {
+		IpfContentCache cache = ipffs.getContentCache();
+		return cache == null ? 0 : cache.getEntryCount();
+	}
+
+	/**
+	 * Gets the count of reads served by the content cache.
+	 *
+	 * @return the hit count.
+	 */
+	public long getCacheHits() {
+		IpfContentCache cache = ipffs.getContentCache();
+		return cache == null ? 0 : cache.getHits();
+	}
+
+	/**
+	 * Gets the count of reads that required the content to be inflated.
+	 *
+	 * @return the miss count.
+	 */
+	public long getCacheMisses() {
+		IpfContentCache cache = ipffs.getContentCache();
+		return cache == null ? 0 : cache.getMisses();
+	}
+
+	/**
+	 * Gets the count of contents evicted to meet the byte budget.
+	 *
+	 * @return the eviction count.
+	 */
+	public long getCacheEvictions() {
+		IpfContentCache cache = ipffs.getContentCache();
+		return cache == null ? 0 : cache.getEvictions();
+	}
+
+	/**
+	 * Gets the ratio of reads served by the content cache.
+	 *
+	 * @return the hit rate, between 0 and 1.
+	 */
+	public double getCacheHitRate() {
+		long hits = getCacheHits();
+		long total = hits + getCacheMisses();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	/*** Off-Heap Content Cache ***/
+
+	/**
+	 * Gets the byte budget of the off-heap content cache.
+	 *
+	 * @return the cache capacity, or zero if the cache is disabled.
+	 */
+	public long getOffHeapCacheCapacity() {
+		IpfContentCache cache = ipffs.getOffHeapContentCache();
+		return cache == null ? 0 : cache.getCapacity();
+	}
+
+	/**
+	 * Gets the count of bytes held by the off-heap content cache.
+	 *
+	 * @return the cache size.
+	 */
+	public long getOffHeapCacheSize() {
+		IpfContentCache cache = ipffs.getOffHeapContentCache();
+		return cache == null ? 0 : cache.getSize();
+	}
+
+	/**
+	 * Gets the count of contents held by the off-heap content cache.
+	 *
+	 * @return the cached entry count.
+	 */
+	public int getOffHeapCacheEntryCount() {
+		IpfContentCache cache = ipffs.getOffHeapContentCache();
+		return cache == null ? 0 : cache.getEntryCount();
+	}
+
+	/**
+	 * Gets the count of reads served by the off-heap content cache.
+	 *
+	 * @return the hit count.
+	 */
+	public long getOffHeapCacheHits() {
+		IpfContentCache cache = ipffs.getOffHeapContentCache();
+		return cache == null ? 0 : cache.getHits();
+	}
+
+	/**
+	 * Gets the count of reads missed by both cache levels.
+	 *
+	 * @return the miss count.
+	 */
+	public long getOffHeapCacheMisses() {
+		IpfContentCache cache = ipffs.getOffHeapContentCache();
+		return cache == null ? 0 : cache.getMisses();
+	}
+
+	/**
+	 * Gets the count of contents evicted from the off-heap content cache.
+	 *
+	 * @return the eviction count.
+	 */
+	public long getOffHeapCacheEvictions() {
+		IpfContentCache cache = ipffs.getOffHeapContentCache();
+		return cache == null ? 0 : cache.getEvictions();
+	}
+}
@@ -4,26 +4,37 @@ import java.io.IOException;
 import java.net.URI;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.AccessMode;
+import java.nio.file.ClosedFileSystemException;
 import java.nio.file.CopyOption;
 import java.nio.file.DirectoryStream;
 import java.nio.file.DirectoryStream.Filter;
 import java.nio.file.FileStore;
 import java.nio.file.FileSystem;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileSystemAlreadyExistsException;
 import java.nio.file.FileSystemNotFoundException;
 import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import java.nio.file.LinkOption;
+import java.nio.file.NotDirectoryException;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileAttribute;
 import java.nio.file.attribute.FileAttributeView;
 import java.nio.file.spi.FileSystemProvider;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.zip.DataFormatException;
 
 /**
@@ -50,7 +61,13 @@ import java.util.zip.DataFormatException;
  */
 public class IpfFileSystemProvider extends FileSystemProvider {
 
-	private Map<Path, IpfFileSystem> fileSystems = new HashMap<>();
+	/**
+	 * The mounted file systems, keyed by path.
+	 * 
+	 * <p>Each mount is published as a future before its '.ipf' file is parsed, so that concurrent
+	 * callers mounting the same path wait for a single parsing instead of racing each other.</p>
+	 */
+	private final ConcurrentMap<Path, CompletableFuture<IpfFileSystem>> fileSystems = new ConcurrentHashMap<>();
 	
 	@Override
 	public String getScheme() {
@@ -75,6 +92,13 @@ public class IpfFileSystemProvider extends FileSystemProvider {
 		return path;
 	}
 	
+	/**
+	 * Creates a file system.
+	 */
+	private interface Mounter {
+		IpfFileSystem mount() throws IOException;
+	}
+	
 	private IpfPath toIpfPath(Path path) {
 		if(path == null)
 			throw new NullPointerException();
@@ -95,24 +119,136 @@ public class IpfFileSystemProvider extends FileSystemProvider {
 		if(path.getFileSystem() != FileSystems.getDefault())
 			throw new UnsupportedOperationException("The path must target an '" + getScheme()
 					+ "' file hosted into the default file system.");
-		synchronized (fileSystems) {
-			if(fileSystems.containsKey(path))
+		return mount(path, () -> open(path, env), true);
+	}
+	
+	/**
+	 * Gets the file system mounted over a path, or mounts it if it doesn't exist yet.
+	 * 
+	 * <p>The lookup and the mount are atomic : when several threads request the same
+	 * path at once, the '.ipf' file is parsed only once and every caller gets the same
+	 * file system.</p>
+	 * 
+	 * @param path The path of the '.ipf' file, or of a directory of '.ipf' files.
+	 * @param env The file system properties, only used if the file system is mounted.
+	 * @return the file system.
+	 * 
+	 * @throws IOException - if the file system couldn't be mounted.
+	 */
+	public IpfFileSystem getOrNewFileSystem(Path path, Map<String, ?> env) throws IOException {
+		CompletableFuture<IpfFileSystem> future = fileSystems.get(path);
+		if(future != null)
+			return await(future);
+		if(path.getFileSystem() != FileSystems.getDefault())
+			throw new UnsupportedOperationException("The path must target an '" + getScheme()
+					+ "' file hosted into the default file system.");
+		return mount(path, () -> open(path, env), false);
+	}
+	
+	/**
+	 * Mounts an overlay file system over an ordered list of '.ipf' files.
+	 * 
+	 * <p>When several '.ipf' files hold the same path, the file of the last one wins.
+	 * Mounting a directory through {@link #newFileSystem(Path, Map)} creates an overlay
+	 * over its '.ipf' files, ordered by revision.</p>
+	 * 
+	 * @param key The path the file system is registered under.
+	 * @param archives The '.ipf' files, each one overriding the previous ones.
+	 * @param env The file system properties, applied to every '.ipf' file.
+	 * @return the overlay file system.
+	 * 
+	 * @throws IOException - if an I/O error occurs.
+	 */
+	public IpfOverlayFileSystem newOverlayFileSystem(Path key, List<Path> archives, Map<String, ?> env)
+			throws IOException {
+		for(Path archive : archives)
+			if(archive.getFileSystem() != FileSystems.getDefault())
+				throw new UnsupportedOperationException("The paths must target '" + getScheme()
+						+ "' files hosted into the default file system.");
+		return (IpfOverlayFileSystem) mount(key, () -> new IpfOverlayFileSystem(this, key, archives, env), true);
+	}
+	
+	/**
+	 * Creates the file system of a path, without registering it.
+	 */
+	private IpfFileSystem open(Path path, Map<String, ?> env) throws IOException {
+		if(Files.isDirectory(path))
+			return new IpfOverlayFileSystem(this, path, IpfOverlayFileSystem.listArchives(path), env);
+		return new IpfFileSystem(this, path, env);
+	}
+	
+	/**
+	 * Registers a file system, unless one is already registered under its key.
+	 * 
+	 * @param key The path the file system is registered under.
+	 * @param mounter Creates the file system.
+	 * @param failIfExists <code>true</code> to fail if a file system is already registered,
+	 * <code>false</code> to return it.
+	 * @return the registered file system.
+	 * 
+	 * @throws IOException - if the file system couldn't be created.
+	 */
+	private IpfFileSystem mount(Path key, Mounter mounter, boolean failIfExists) throws IOException {
+		CompletableFuture<IpfFileSystem> future = new CompletableFuture<>();
+		CompletableFuture<IpfFileSystem> existing = fileSystems.putIfAbsent(key, future);
+		if(existing != null) {
+			if(failIfExists)
 				throw new FileSystemAlreadyExistsException();
-			IpfFileSystem ipffs = new IpfFileSystem(this, path, env);
-			fileSystems.put(path, ipffs);
-			return  ipffs;
+			return await(existing);
+		}
+		try {
+			IpfFileSystem ipffs = mounter.mount();
+			future.complete(ipffs);
+			return ipffs;
+		} catch (Throwable e) {
+			fileSystems.remove(key, future);
+			future.completeExceptionally(e);
+			throw e;
 		}
 	}
 	
+	/**
+	 * Waits for a file system being mounted by another thread.
+	 */
+	private static IpfFileSystem await(CompletableFuture<IpfFileSystem> future) throws IOException {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if(e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Unregisters a file system once it has been closed.
+	 * 
+	 * @param ipffs The closed file system.
+	 */
+	protected void removeFileSystem(IpfFileSystem ipffs) {
+		Path key = ipffs.getFileSystemPath();
+		CompletableFuture<IpfFileSystem> future = fileSystems.get(key);
+		if(future != null && future.isDone() && !future.isCompletedExceptionally() && future.join() == ipffs)
+			fileSystems.remove(key, future);
+	}
+	
 	@Override
 	public FileSystem getFileSystem(URI uri) {
-		synchronized(fileSystems) {
-			Path fsPath = toFileSystemPath(uri);
-			if(!fileSystems.containsKey(fsPath))
-				throw new FileSystemNotFoundException();
-			return fileSystems.get(fsPath);
+		CompletableFuture<IpfFileSystem> future = fileSystems.get(toFileSystemPath(uri));
+		if(future == null)
+			throw new FileSystemNotFoundException();
+		try {
+			return await(future);
+		} catch (IOException | CompletionException e) {
+			throw notFound(e);
 		}
 	}
+	
+	private static FileSystemNotFoundException notFound(Exception cause) {
+		FileSystemNotFoundException e = new FileSystemNotFoundException(cause.getMessage());
+		e.initCause(cause);
+		return e;
+	}
 
 	private String getFileSystemSpecificPart(URI uri) {
 		String spec = uri.getSchemeSpecificPart();
@@ -125,15 +261,11 @@ public class IpfFileSystemProvider extends FileSystemProvider {
 	
 	@Override
 	public Path getPath(URI uri) {
-		FileSystem fs = null;
+		IpfFileSystem fs;
 		try {
-			fs = getFileSystem(uri);
-		} catch(FileSystemNotFoundException e) {
-			try {
-				fs = newFileSystem(uri, new HashMap<String, String>());
-			} catch (IOException e1) {
-				e1.printStackTrace();
-			}
+			fs = getOrNewFileSystem(toFileSystemPath(uri), Collections.<String, Object>emptyMap());
+		} catch (IOException e) {
+			throw notFound(e);
 		}
 		return fs.getPath(getFileSystemSpecificPart(uri));
 	}
@@ -148,27 +280,34 @@ public class IpfFileSystemProvider extends FileSystemProvider {
 	@Override
 	public DirectoryStream<Path> newDirectoryStream(Path dir,
 			Filter<? super Path> filter) throws IOException {
-		return new IpfDirectoryStream<>(toIpfPath(dir), IpfDirectoryIterator.class, filter);
+		IpfPath ipfDir = toIpfPath(dir);
+		if(!ipfDir.getFileSystem().loadDirectoryTree().isDirectory(ipfDir.toString()))
+			throw new NotDirectoryException(dir.toString());
+		return new IpfDirectoryStream<>(ipfDir, IpfDirectoryIterator.class, filter);
 	}
 
 	@Override
 	public void createDirectory(Path dir, FileAttribute<?>... attrs)
 			throws IOException {
-		// TODO Auto-generated method stub
-		
+		IpfPath ipfDir = toIpfPath(dir);
+		ipfDir.getFileSystem().createDirectory(ipfDir);
 	}
 
 	@Override
 	public void delete(Path path) throws IOException {
-		// TODO Auto-generated method stub
-		
+		IpfPath ipfPath = toIpfPath(path);
+		ipfPath.getFileSystem().delete(ipfPath);
 	}
 
 	@Override
 	public void copy(Path source, Path target, CopyOption... options)
 			throws IOException {
+		IpfContentMode mode = IpfContentMode.INFLATE;
+		for(CopyOption option : options)
+			if(option instanceof IpfContentMode)
+				mode = (IpfContentMode) option;
 		try {
-			IpfFileSystem.dump(toIpfPath(source), target);
+			IpfFileSystem.dump(toIpfPath(source), target, mode);
 		} catch (DataFormatException e) {
 			throw new IOException();
 		}
@@ -177,8 +316,26 @@ public class IpfFileSystemProvider extends FileSystemProvider {
 	@Override
 	public void move(Path source, Path target, CopyOption... options)
 			throws IOException {
-		// TODO Auto-generated method stub
-		
+		IpfPath src = toIpfPath(source);
+		boolean replaceExisting = false;
+		for(CopyOption option : options)
+			if(option == StandardCopyOption.REPLACE_EXISTING)
+				replaceExisting = true;
+		if(target.getFileSystem() == src.getFileSystem()) {
+			src.getFileSystem().move(src, (IpfPath) target, replaceExisting);
+			return;
+		}
+		// The source is deleted last : check that it can be before touching the target.
+		if(!src.getFileSystem().isOpen())
+			throw new ClosedFileSystemException();
+		if(src.getFileSystem().isReadOnly())
+			throw new ReadOnlyFileSystemException();
+		if(replaceExisting)
+			Files.deleteIfExists(target);
+		else if(Files.exists(target))
+			throw new FileAlreadyExistsException(target.toString());
+		copy(src, target);
+		delete(src);
 	}
 
 	@Override
@@ -198,15 +355,14 @@ public class IpfFileSystemProvider extends FileSystemProvider {
 		Path fsPath = toIpfPath(path).getFileSystem().getFileSystemPath();
 		if(fsPath.getFileSystem() != FileSystems.getDefault())
 			throw new UnsupportedOperationException("The path must be relative to the default file system.");
-		synchronized (fileSystems) {
-			if(!fileSystems.containsKey(fsPath))
-				throw new FileSystemNotFoundException();
-			Iterator<FileStore> it = fileSystems.get(fsPath).getFileStores().iterator();
-			FileStore fstore = it.next();	// A path is only related to one file store.
-			if(fstore == null)
-				throw new IllegalArgumentException("This path doesn't have a file store.");
-			return fstore;
-		}
+		CompletableFuture<IpfFileSystem> future = fileSystems.get(fsPath);
+		if(future == null)
+			throw new FileSystemNotFoundException();
+		Iterator<FileStore> it = await(future).getFileStores().iterator();
+		FileStore fstore = it.next();	// A path is only related to one file store.
+		if(fstore == null)
+			throw new IllegalArgumentException("This path doesn't have a file store.");
+		return fstore;
 	}
 
 	@Override
@@ -0,0 +1,556 @@
+package com.herestt.tos.nio.ipffs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * A compact in-memory representation of the file list of an IPF file system.
+ *
+ * <p>Instead of holding one {@link IpfFileAttributes} object per stored file, the table
+ * keeps each attribute into its own primitive array, indexed by the position of the file
+ * in the list :
+ * 	<ul>
+ * 		<li>checksums and sizes are stored as unsigned 32 bits values into <code>int</code> arrays;</li>
+ * 		<li>offsets are stored into a <code>long</code> array;</li>
+ * 		<li>file system names are interned, since nearly every file shares the same one;</li>
+ * 		<li>paths are stored as UTF-8 bytes into a single shared array.</li>
+ * 	</ul>
+ * </p>
+ *
+ * <p>{@link IpfFileAttributes} objects are only created on demand through {@link #getAttributes(int)}
+ * and read their values from this table.</p>
+ *
+ * <p>Paths are indexed by an open addressing hash table, so that looking up a file by its path
+ * doesn't require any attribute object to be created.</p>
+ *
+ * <p>Since the table is only made of arrays, it can be written as is through {@link #write(ByteBuffer)}
+ * and read back by bulk copies through {@link #read(ByteBuffer)}, its hash table included.</p>
+ *
+ * @author Herestt
+ *
+ */
+public class IpfFileTable {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** The count of files decoded by each task of {@link #decode(ByteBuffer, int, ForkJoinPool)}. */
+	private static final int DECODE_CHUNK_SIZE = 4096;
+
+	/** The count of files held by the table. */
+	private int count;
+
+	private int[] crcs;
+	private int[] compressedSizes;
+	private int[] sizes;
+	private long[] offsets;
+	private String[] fsNames;
+
+	/** The paths of the files, without the '/' root character, as UTF-8 bytes. */
+	private byte[] paths;
+
+	/** The start of each path into {@link #paths}; the path of the file <code>i</code> ends at <code>i + 1</code>. */
+	private int[] pathOffsets;
+
+	/** The hash slots, each holding a file position plus one, or zero when empty. */
+	private int[] slots;
+
+	/** The distinct file system names. */
+	private final Map<String, String> fsNamePool = new HashMap<>();
+
+	protected IpfFileTable() {
+		this(INITIAL_CAPACITY);
+	}
+
+	protected IpfFileTable(int capacity) {
+		this(Math.max(capacity, 1), Math.max(capacity, 1) * 32, slotCount(Math.max(capacity, 1)));
+	}
+
+	private IpfFileTable(int capacity, int pathCapacity, int slotCount) {
+		crcs = new int[capacity];
+		compressedSizes = new int[capacity];
+		sizes = new int[capacity];
+		offsets = new long[capacity];
+		fsNames = new String[capacity];
+		paths = new byte[pathCapacity];
+		pathOffsets = new int[capacity + 1];
+		slots = new int[slotCount];
+	}
+
+	private static int slotCount(int capacity) {
+		return Integer.highestOneBit(Math.max(capacity, 8) * 2 - 1) << 1;
+	}
+
+	/**
+	 * Adds a file to the table.
+	 *
+	 * @param crc The checksum of the content.
+	 * @param compressedSize The size of the compressed content.
+	 * @param size The size of the content.
+	 * @param offset The offset of the content.
+	 * @param fsName The file system's name.
+	 * @param path The file path, as UTF-8 bytes and without the '/' root character.
+	 * @return the position of the file into the table.
+	 */
+	protected int add(long crc, long compressedSize, long size, long offset, String fsName, byte[] path) {
+		return add(crc, compressedSize, size, offset, fsName, path, 0, path.length);
+	}
+
+	/**
+	 * Adds a file to the table, its path being read from a region of an array.
+	 *
+	 * @see #add(long, long, long, long, String, byte[])
+	 */
+	protected int add(long crc, long compressedSize, long size, long offset, String fsName,
+			byte[] path, int pathOffset, int pathLength) {
+		ensureCapacity(count + 1, pathOffsets[count] + pathLength);
+		int i = count;
+		crcs[i] = (int) crc;
+		compressedSizes[i] = (int) compressedSize;
+		sizes[i] = (int) size;
+		offsets[i] = offset;
+		fsNames[i] = intern(fsName);
+		System.arraycopy(path, pathOffset, paths, pathOffsets[i], pathLength);
+		pathOffsets[i + 1] = pathOffsets[i] + pathLength;
+		count++;
+		insert(i);
+		return i;
+	}
+
+	/**
+	 * Replaces the attributes of a file, its path excepted.
+	 *
+	 * @param i The position of the file into the table.
+	 * @see #add(long, long, long, long, String, byte[])
+	 */
+	protected void set(int i, long crc, long compressedSize, long size, long offset, String fsName) {
+		checkIndex(i);
+		crcs[i] = (int) crc;
+		compressedSizes[i] = (int) compressedSize;
+		sizes[i] = (int) size;
+		offsets[i] = offset;
+		fsNames[i] = intern(fsName);
+	}
+
+	/**
+	 * Copies a file from another table, or replaces it if its path is already held by this one.
+	 *
+	 * @param other The table to copy the file from.
+	 * @param j The position of the file into the other table.
+	 * @return the position of the file into this table.
+	 */
+	protected int put(IpfFileTable other, int j) {
+		int from = other.pathOffsets[j];
+		int length = other.pathOffsets[j + 1] - from;
+		int i = indexOf(other.paths, from, length);
+		if(i < 0)
+			return add(other.getCrc(j), other.getCompressedSize(j), other.getSize(j), other.getOffset(j),
+					other.getFsName(j), other.paths, from, length);
+		set(i, other.getCrc(j), other.getCompressedSize(j), other.getSize(j), other.getOffset(j), other.getFsName(j));
+		return i;
+	}
+
+	/**
+	 * Adds a file to the table, or replaces it if its path is already held by this one.
+	 * 
+	 * @param attrs The attributes of the file.
+	 * @return the position of the file into this table.
+	 */
+	protected int put(IpfFileAttributes attrs) {
+		int i = indexOf(attrs.getPath());
+		if(i < 0)
+			return add(attrs.getCrc(), attrs.getCompressedSize(), attrs.size(), attrs.getOffset(),
+					attrs.getFsName(), attrs.getPath().getBytes(StandardCharsets.UTF_8));
+		set(i, attrs.getCrc(), attrs.getCompressedSize(), attrs.size(), attrs.getOffset(), attrs.getFsName());
+		return i;
+	}
+	
+	/**
+	 * Copies this table, keeping the position of every file.
+	 * 
+	 * @return the copy.
+	 */
+	protected IpfFileTable copy() {
+		IpfFileTable copy = new IpfFileTable(count);
+		for(int i = 0; i < count; i++)
+			copy.put(this, i);
+		return copy;
+	}
+	
+	private String intern(String fsName) {
+		String interned = fsNamePool.get(fsName);
+		if(interned == null) {
+			fsNamePool.put(fsName, fsName);
+			interned = fsName;
+		}
+		return interned;
+	}
+
+	private void ensureCapacity(int entries, int pathBytes) {
+		if(entries > crcs.length) {
+			int capacity = Math.max(entries, crcs.length * 2);
+			crcs = Arrays.copyOf(crcs, capacity);
+			compressedSizes = Arrays.copyOf(compressedSizes, capacity);
+			sizes = Arrays.copyOf(sizes, capacity);
+			offsets = Arrays.copyOf(offsets, capacity);
+			fsNames = Arrays.copyOf(fsNames, capacity);
+			pathOffsets = Arrays.copyOf(pathOffsets, capacity + 1);
+		}
+		if(pathBytes > paths.length)
+			paths = Arrays.copyOf(paths, Math.max(pathBytes, paths.length * 2));
+		if(entries * 2 > slots.length) {
+			slots = new int[slotCount(entries)];
+			for(int i = 0; i < count; i++)
+				insert(i);
+		}
+	}
+
+	private void insert(int i) {
+		insert(i, hash(paths, pathOffsets[i], pathOffsets[i + 1]));
+	}
+
+	private void insert(int i, int hash) {
+		int mask = slots.length - 1;
+		int slot = hash & mask;
+		while(slots[slot] != 0)
+			slot = (slot + 1) & mask;
+		slots[slot] = i + 1;
+	}
+
+	private static int hash(byte[] bytes, int from, int to) {
+		int h = 1;
+		for(int i = from; i < to; i++)
+			h = 31 * h + bytes[i];
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Gets the count of files held by this table.
+	 *
+	 * @return the file count.
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Finds the position of a file into the table.
+	 *
+	 * @param path The file path, with or without the '/' root character.
+	 * @return the position of the file, or <code>-1</code> if it isn't stored.
+	 */
+	public int indexOf(String path) {
+		if(path.startsWith("/"))
+			path = path.substring(1);
+		byte[] key = path.getBytes(StandardCharsets.UTF_8);
+		return indexOf(key, 0, key.length);
+	}
+
+	private int indexOf(byte[] key, int off, int len) {
+		int mask = slots.length - 1;
+		int slot = hash(key, off, off + len) & mask;
+		int entry;
+		while((entry = slots[slot]) != 0) {
+			int i = entry - 1;
+			int from = pathOffsets[i];
+			int length = pathOffsets[i + 1] - from;
+			if(length == len && regionEquals(key, off, from, len))
+				return i;
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	private boolean regionEquals(byte[] key, int off, int from, int len) {
+		for(int k = 0; k < len; k++)
+			if(paths[from + k] != key[off + k])
+				return false;
+		return true;
+	}
+
+	/**
+	 * Sorts the files by the offset of their content.
+	 *
+	 * @return the positions of the files, ordered by offset.
+	 */
+	public int[] sortByOffset() {
+		Integer[] order = new Integer[count];
+		for(int i = 0; i < count; i++)
+			order[i] = i;
+		Arrays.sort(order, (a, b) -> Long.compare(offsets[a], offsets[b]));
+		int[] sorted = new int[count];
+		for(int i = 0; i < count; i++)
+			sorted[i] = order[i];
+		return sorted;
+	}
+
+	/**
+	 * Creates the attributes of a file.
+	 *
+	 * The attributes aren't copied, they are read from this table.
+	 *
+	 * @param i The position of the file.
+	 * @return the file attributes.
+	 */
+	public IpfFileAttributes getAttributes(int i) {
+		checkIndex(i);
+		return new IpfFileAttributes(this, i);
+	}
+
+	private void checkIndex(int i) {
+		if(i < 0 || i >= count)
+			throw new IndexOutOfBoundsException(String.valueOf(i));
+	}
+
+	/*** Attribute Accessors ***/
+
+	public long getCrc(int i) {
+		return crcs[i] & 0xFFFFFFFFL;
+	}
+
+	public long getCompressedSize(int i) {
+		return compressedSizes[i] & 0xFFFFFFFFL;
+	}
+
+	public long getSize(int i) {
+		return sizes[i] & 0xFFFFFFFFL;
+	}
+
+	public long getOffset(int i) {
+		return offsets[i];
+	}
+
+	public String getFsName(int i) {
+		return fsNames[i];
+	}
+
+	public int getFsNameSize(int i) {
+		return fsNames[i].getBytes(StandardCharsets.UTF_8).length;
+	}
+
+	public int getPathSize(int i) {
+		return pathOffsets[i + 1] - pathOffsets[i];
+	}
+
+	public String getPath(int i) {
+		return new String(paths, pathOffsets[i], getPathSize(i), StandardCharsets.UTF_8);
+	}
+
+	/*** Decoding ***/
+
+	/**
+	 * Decodes the file list of an '.ipf' file.
+	 *
+	 * <p>The entries of the list have a variable length, so the list is first pre-scanned : only
+	 * the sizes of the path and of the file system name of each entry are read, which gives the
+	 * start of every entry and of every path into the table. The entries are then decoded by chunks,
+	 * in parallel on the given pool, each chunk writing its own region of the table arrays. The
+	 * file system names are finally interned and the paths indexed, from hashes computed by the
+	 * chunks.</p>
+	 *
+	 * @param list The file list, from its position to its limit.
+	 * @param count The count of files, read from the footer.
+	 * @param pool The pool the chunks are decoded on.
+	 * @return the table.
+	 *
+	 * @throws IOException - if the file list is truncated.
+	 */
+	protected static IpfFileTable decode(ByteBuffer list, int count, ForkJoinPool pool) throws IOException {
+		ByteBuffer b = list.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int capacity = Math.max(count, 1);
+		int[] starts = new int[count];
+		int[] pathOffsets = new int[capacity + 1];
+		int position = b.position();
+		for(int i = 0; i < count; i++) {
+			if(b.limit() - position < 20)
+				throw new IOException("Truncated file list.");
+			int pathSize = b.getShort(position) & 0xFFFF;
+			int fsNameSize = b.getShort(position + 18) & 0xFFFF;
+			starts[i] = position;
+			pathOffsets[i + 1] = pathOffsets[i] + pathSize;
+			position += 20 + fsNameSize + pathSize;
+			if(position > b.limit())
+				throw new IOException("Truncated file list.");
+		}
+		IpfFileTable table = new IpfFileTable(capacity, pathOffsets[count], slotCount(capacity));
+		table.pathOffsets = pathOffsets;
+		int[] hashes = new int[count];
+		if(count <= DECODE_CHUNK_SIZE)
+			table.decode(b, starts, hashes, 0, count);
+		else {
+			List<ForkJoinTask<?>> tasks = new ArrayList<>();
+			for(int from = 0; from < count; from += DECODE_CHUNK_SIZE) {
+				int chunk = from;
+				tasks.add(pool.submit(() -> table.decode(b, starts, hashes, chunk, Math.min(count, chunk + DECODE_CHUNK_SIZE))));
+			}
+			for(ForkJoinTask<?> task : tasks)
+				task.join();
+		}
+		for(int i = 0; i < count; i++) {
+			table.fsNames[i] = table.intern(table.fsNames[i]);
+			table.insert(i, hashes[i]);
+		}
+		table.count = count;
+		return table;
+	}
+
+	/**
+	 * Decodes a chunk of pre-scanned entries into the table arrays.
+	 */
+	private void decode(ByteBuffer list, int[] starts, int[] hashes, int from, int to) {
+		ByteBuffer b = list.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		String fsName = null;
+		int fsNameStart = 0;
+		int fsNameSize = -1;
+		for(int i = from; i < to; i++) {
+			int start = starts[i];
+			crcs[i] = b.getInt(start + 2);
+			compressedSizes[i] = b.getInt(start + 6);
+			sizes[i] = b.getInt(start + 10);
+			offsets[i] = b.getInt(start + 14) & 0xFFFFFFFFL;
+			int size = b.getShort(start + 18) & 0xFFFF;
+			if(size != fsNameSize || !regionEquals(b, fsNameStart, start + 20, size)) {
+				byte[] bytes = new byte[size];
+				b.position(start + 20);
+				b.get(bytes);
+				fsName = new String(bytes, StandardCharsets.UTF_8);
+				fsNameStart = start + 20;
+				fsNameSize = size;
+			}
+			fsNames[i] = fsName;	// Shared by the consecutive files of the chunk, interned afterwards.
+			b.position(start + 20 + size);
+			b.get(paths, pathOffsets[i], pathOffsets[i + 1] - pathOffsets[i]);
+			hashes[i] = hash(paths, pathOffsets[i], pathOffsets[i + 1]);
+		}
+	}
+
+	private static boolean regionEquals(ByteBuffer b, int first, int second, int size) {
+		for(int k = 0; k < size; k++)
+			if(b.get(first + k) != b.get(second + k))
+				return false;
+		return true;
+	}
+
+	/*** Serialization ***/
+
+	/**
+	 * Gets the count of bytes written by {@link #write(ByteBuffer)}.
+	 *
+	 * @return the serialized size of the table.
+	 */
+	protected int byteSize() {
+		int size = 16 + count * 8 + (count * 3 + count + 1 + slots.length) * 4 + count * 2 + pathOffsets[count];
+		for(String fsName : names().keySet())
+			size += 2 + fsName.getBytes(StandardCharsets.UTF_8).length;
+		return size;
+	}
+
+	/**
+	 * Numbers the distinct file system names held by the files, by order of appearance.
+	 */
+	private Map<String, Integer> names() {
+		Map<String, Integer> names = new LinkedHashMap<>();
+		for(int i = 0; i < count; i++)
+			names.putIfAbsent(fsNames[i], names.size());
+		return names;
+	}
+
+	/**
+	 * Writes the arrays of the table, in little endian order :
+	 * <ul>
+	 * 		<li>the count of files, of hash slots, of path bytes and of file system names (4 x 4 bytes);</li>
+	 * 		<li>the offsets (8 bytes per file);</li>
+	 * 		<li>the checksums, compressed sizes and sizes (3 x 4 bytes per file);</li>
+	 * 		<li>the path offsets (4 bytes per file, plus 4) and the hash slots (4 bytes per slot);</li>
+	 * 		<li>the position of the file system name of each file (2 bytes per file);</li>
+	 * 		<li>the paths, as UTF-8 bytes;</li>
+	 * 		<li>the file system names, each one preceded by its size (2 bytes).</li>
+	 * </ul>
+	 *
+	 * @param dst The buffer to write to, which must have {@link #byteSize()} bytes remaining.
+	 */
+	protected void write(ByteBuffer dst) {
+		ByteBuffer b = dst.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		Map<String, Integer> names = names();
+		b.putInt(count).putInt(slots.length).putInt(pathOffsets[count]).putInt(names.size());
+		b.asLongBuffer().put(offsets, 0, count);
+		b.position(b.position() + count * 8);
+		b.asIntBuffer().put(crcs, 0, count).put(compressedSizes, 0, count).put(sizes, 0, count)
+			.put(pathOffsets, 0, count + 1).put(slots);
+		b.position(b.position() + (count * 3 + count + 1 + slots.length) * 4);
+		for(int i = 0; i < count; i++)
+			b.putShort((short) (int) names.get(fsNames[i]));
+		b.put(paths, 0, pathOffsets[count]);
+		for(String fsName : names.keySet()) {
+			byte[] bytes = fsName.getBytes(StandardCharsets.UTF_8);
+			b.putShort((short) bytes.length).put(bytes);
+		}
+		dst.position(b.position());
+	}
+
+	/**
+	 * Reads a table written by {@link #write(ByteBuffer)}.
+	 *
+	 * <p>Each array is filled by a single bulk copy, without decoding the files one by one. The
+	 * read values are checked, so that a damaged buffer can't lead to a broken table.</p>
+	 *
+	 * @param src The buffer to read from.
+	 * @return the table.
+	 *
+	 * @throws IOException - if the buffer doesn't hold a valid table.
+	 */
+	protected static IpfFileTable read(ByteBuffer src) throws IOException {
+		ByteBuffer b = src.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		try {
+			int count = b.getInt();
+			int slotCount = b.getInt();
+			int pathBytes = b.getInt();
+			int nameCount = b.getInt();
+			if(count < 0 || pathBytes < 0 || nameCount < 0 || nameCount > Math.max(count, 1)
+					|| slotCount < count * 2 || Integer.bitCount(slotCount) != 1
+					|| b.remaining() < (long) count * 26 + 4 + (long) slotCount * 4 + pathBytes)
+				throw new IOException("Invalid file table header.");
+			IpfFileTable table = new IpfFileTable(Math.max(count, 1), pathBytes, slotCount);
+			b.asLongBuffer().get(table.offsets, 0, count);
+			b.position(b.position() + count * 8);
+			b.asIntBuffer().get(table.crcs, 0, count).get(table.compressedSizes, 0, count)
+				.get(table.sizes, 0, count).get(table.pathOffsets, 0, count + 1).get(table.slots);
+			b.position(b.position() + (count * 3 + count + 1 + slotCount) * 4);
+			short[] nameIndexes = new short[count];
+			b.asShortBuffer().get(nameIndexes);
+			b.position(b.position() + count * 2);
+			b.get(table.paths, 0, pathBytes);
+			String[] names = new String[nameCount];
+			for(int n = 0; n < nameCount; n++) {
+				byte[] bytes = new byte[b.getShort() & 0xFFFF];
+				b.get(bytes);
+				names[n] = table.intern(new String(bytes, StandardCharsets.UTF_8));
+			}
+			for(int i = 0; i < count; i++) {
+				int n = nameIndexes[i] & 0xFFFF;
+				if(n >= nameCount || table.pathOffsets[i] > table.pathOffsets[i + 1])
+					throw new IOException("Invalid file table entry: " + i);
+				table.fsNames[i] = names[n];
+			}
+			if(table.pathOffsets[0] != 0 || table.pathOffsets[count] != pathBytes)
+				throw new IOException("Invalid file table paths.");
+			for(int slot : table.slots)
+				if(slot < 0 || slot > count)
+					throw new IOException("Invalid file table slot.");
+			table.count = count;
+			src.position(b.position());
+			return table;
+		} catch (RuntimeException e) {
+			throw new IOException("Invalid file table.", e);
+		}
+	}
+}
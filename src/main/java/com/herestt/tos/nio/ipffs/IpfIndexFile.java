@@ -0,0 +1,150 @@
+package com.herestt.tos.nio.ipffs;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A sidecar file holding the file table of an '.ipf' file, so that mounting it doesn't parse its
+ * file list again.
+ *
+ * <p>An index file starts with a header identifying the '.ipf' file it was built from :
+ * <ul>
+ * 		<li>the magic number <code>IPFX</code> and the format version (2 x 4 bytes);</li>
+ * 		<li>the size and the last modification time, in milliseconds, of the '.ipf' file (2 x 8 bytes);</li>
+ * 		<li>a copy of the footer of the '.ipf' file (24 bytes).</li>
+ * </ul>
+ * The header is followed by the arrays of the {@link IpfFileTable}, as written by
+ * {@link IpfFileTable#write(ByteBuffer)}. Everything is little endian.</p>
+ *
+ * <p>The index file is read into memory and its arrays are bulk-copied into the table. It is never
+ * mapped : a mapping outlives its channel until it is garbage collected, and a mapped file can't be
+ * replaced on Windows. When the header doesn't match the '.ipf' file anymore, the index file is
+ * stale : the file list is parsed again and the index file is rebuilt.</p>
+ *
+ * @author Herestt
+ *
+ */
+public class IpfIndexFile {
+
+	/** The extension appended to the name of the '.ipf' file. */
+	public static final String EXTENSION = ".idx";
+
+	private static final int MAGIC_NUMBER = 0x58465049;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 8 + 16 + IpfFileStore.FOOTER_SIZE;
+
+	private IpfIndexFile() {}
+
+	/**
+	 * Gets the path of the index file of an '.ipf' file.
+	 *
+	 * @param archive The '.ipf' file.
+	 * @param directory The directory holding the index files, or <code>null</code> to keep each
+	 * index file next to its '.ipf' file.
+	 * @return the path of the index file.
+	 */
+	public static Path resolve(Path archive, Path directory) {
+		String name = archive.getFileName() + EXTENSION;
+		return directory == null ? archive.resolveSibling(name) : directory.resolve(name);
+	}
+
+	/**
+	 * Reads the header identifying the current state of an '.ipf' file.
+	 *
+	 * @param archive The '.ipf' file.
+	 * @return the header, from zero to its limit.
+	 *
+	 * @throws IOException - if an I/O error occurs.
+	 */
+	protected static ByteBuffer header(Path archive) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		try(FileChannel fc = FileChannel.open(archive, StandardOpenOption.READ)) {
+			long size = fc.size();
+			if(size < IpfFileStore.FOOTER_SIZE)
+				throw new IOException("Not an '.ipf' file: " + archive);
+			header.putInt(MAGIC_NUMBER).putInt(VERSION).putLong(size)
+				.putLong(Files.getLastModifiedTime(archive).toMillis());
+			int start = header.position();
+			while(header.hasRemaining())
+				if(fc.read(header, size - IpfFileStore.FOOTER_SIZE + header.position() - start) < 0)
+					throw new IOException("Truncated footer.");
+		}
+		header.flip();
+		return header;
+	}
+
+	/**
+	 * Loads the file table held by an index file.
+	 *
+	 * @param index The index file.
+	 * @param header The header of the '.ipf' file, as returned by {@link #header(Path)}.
+	 * @return the file table, or <code>null</code> if the index file doesn't exist, is stale or damaged.
+	 *
+	 * @throws IOException - if an I/O error occurs.
+	 */
+	protected static IpfFileTable load(Path index, ByteBuffer header) throws IOException {
+		try(FileChannel fc = FileChannel.open(index, StandardOpenOption.READ)) {
+			long size = fc.size();
+			if(size < HEADER_SIZE || size > Integer.MAX_VALUE)
+				return null;
+			ByteBuffer stored = ByteBuffer.allocate(HEADER_SIZE);
+			read(fc, stored, 0);
+			stored.flip();
+			if(!stored.equals(header.duplicate()))
+				return null;
+			ByteBuffer body = ByteBuffer.allocate((int) (size - HEADER_SIZE));
+			read(fc, body, HEADER_SIZE);
+			body.flip();
+			try {
+				return IpfFileTable.read(body);
+			} catch (IOException e) {
+				return null;	// Damaged, rebuilt by the caller.
+			}
+		} catch (NoSuchFileException | EOFException e) {
+			return null;
+		}
+	}
+
+	private static void read(FileChannel fc, ByteBuffer dst, long position) throws IOException {
+		while(dst.hasRemaining())
+			if(fc.read(dst, position + dst.position()) < 0)
+				throw new EOFException();
+	}
+
+	/**
+	 * Writes the index file of an '.ipf' file.
+	 *
+	 * <p>The index file is written under a temporary name, then moved into place, so that a
+	 * concurrent mount never reads a partial index file.</p>
+	 *
+	 * @param index The index file.
+	 * @param header The header of the '.ipf' file, read before its file list was parsed.
+	 * @param table The file table.
+	 *
+	 * @throws IOException - if an I/O error occurs.
+	 */
+	protected static void save(Path index, ByteBuffer header, IpfFileTable table) throws IOException {
+		ByteBuffer content = ByteBuffer.allocate(HEADER_SIZE + table.byteSize());
+		content.put(header.duplicate());
+		table.write(content);
+		content.flip();
+		Path tmp = Files.createTempFile(index.toAbsolutePath().getParent(), index.getFileName().toString(), ".tmp");
+		try {
+			try(FileChannel fc = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+				while(content.hasRemaining())
+					fc.write(content);
+			}
+			Files.move(tmp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+}
@@ -0,0 +1,321 @@
+package com.herestt.tos.nio.ipffs;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A read-only {@link SeekableByteChannel} that inflates the content of a stored file on demand.
+ *
+ * <p>Contrary to {@link IpfByteBufferChannel}, the content is never entirely held in memory : it is
+ * inflated by windows of {@link #WINDOW_SIZE} bytes as the caller reads forward. Therefore the memory
+ * used by this channel doesn't depend on the size of the file, and the first bytes are available as
+ * soon as the first window has been inflated.</p>
+ *
+ * <p>The compressed content is either read from the mapping of the file system, or from a channel
+ * connected to the '.ipf' file by blocks of {@link #INPUT_SIZE} bytes.</p>
+ *
+ * <p>Seeking forward inflates and drops the content in between. Seeking backward into the current
+ * window is free, while seeking further backward restarts the inflation from the beginning of the
+ * file, which is the only point an {@link Inflater} state can be restored to.</p>
+ *
+ * <p>When the seek index of the file system is enabled, the content is inflated by an
+ * {@link IpfRawInflater} instead, which records an {@link IpfSeekIndex} during the first pass. Any
+ * seek outside of the current window then resumes from the nearest checkpoint preceding the new
+ * position.</p>
+ *
+ * <p>When the CRC check of the file system is enabled, the checksum is computed as windows are
+ * inflated in order, and checked once the end of the content is reached. Windows inflated again
+ * after a backward seek aren't checksummed twice.</p>
+ *
+ * @author Herestt
+ *
+ */
+public class IpfInflaterChannel implements SeekableByteChannel {
+
+	/** The size of the inflated content windows. */
+	private static final int WINDOW_SIZE = 64 * 1024;
+
+	/** The size of the compressed blocks read from the '.ipf' file. */
+	private static final int INPUT_SIZE = 16 * 1024;
+
+	/** The file system the channel is registered to. */
+	private final IpfFileSystem ipffs;
+
+	/** The attributes of the file to inflate. */
+	private final IpfFileAttributes attrs;
+
+	/** The compressed content when the file system is mapped, <code>null</code> otherwise. */
+	private final ByteBuffer mapped;
+
+	/** The channel connected to the '.ipf' file when the file system isn't mapped. */
+	private FileChannel source;
+
+	/** The compressed block currently consumed by the inflater. */
+	private ByteBuffer input;
+
+	/** The count of compressed bytes read from the source. */
+	private long sourcePosition;
+
+	private Inflater inflater;
+
+	/** The decoder used when the seek index is enabled, <code>null</code> otherwise. */
+	private IpfRawInflater raw;
+
+	/** The seek index, either cached by the file system or being recorded. */
+	private IpfSeekIndex index;
+
+	/** The last inflated bytes, from zero to its limit. */
+	private final ByteBuffer window = ByteBuffer.allocate(WINDOW_SIZE);
+
+	/** The position of the window into the inflated content. */
+	private long windowStart;
+
+	private long position = 0;
+
+	/** The checksum of the content inflated so far, or <code>null</code> if the CRC check is disabled. */
+	private final CRC32 crc;
+
+	/** The count of inflated bytes covered by {@link #crc}. */
+	private long checksummed = 0;
+
+	private boolean open = true;
+
+	/**
+	 * IPF Inflater Channel constructor.
+	 *
+	 * @param ipffs The file system holding the file.
+	 * @param attrs The attributes of the file to inflate.
+	 *
+	 * @throws IOException - if an I/O error occurs.
+	 */
+	protected IpfInflaterChannel(IpfFileSystem ipffs, IpfFileAttributes attrs) throws IOException {
+		this.ipffs = ipffs;
+		this.attrs = attrs;
+		this.mapped = ipffs.slice(attrs);
+		this.crc = ipffs.isCrcVerified() ? new CRC32() : null;
+		if(mapped == null)
+			source = FileChannel.open(ipffs.getFileSystemPath(), StandardOpenOption.READ);
+		if(ipffs.isSeekIndexEnabled()) {
+			raw = mapped != null ? new IpfRawInflater(mapped)
+					: new IpfRawInflater(source, attrs.getOffset(), attrs.getCompressedSize());
+			index = ipffs.getSeekIndex(attrs);
+			if(index == null) {
+				index = new IpfSeekIndex(ipffs.getSeekIndexSpacing());
+				raw.setIndex(index);
+			}
+		}
+		else {
+			if(mapped == null)
+				input = ByteBuffer.allocate(INPUT_SIZE);
+			inflater = ipffs.getInflaterPool().borrow();
+		}
+		restart();
+	}
+
+	private void ensureOpen() throws ClosedChannelException {
+		if(!open)
+			throw new ClosedChannelException();
+	}
+
+	/**
+	 * Restarts the inflation from the beginning of the file.
+	 */
+	private void restart() {
+		windowStart = 0;
+		window.clear().flip();
+		if(raw != null) {
+			raw.reset();
+			return;
+		}
+		inflater.reset();
+		sourcePosition = 0;
+		if(mapped != null)
+			inflater.setInput(mapped.duplicate());
+	}
+
+	/**
+	 * Restarts the inflation from the nearest checkpoint preceding a position, 
+	 * if it is worth it.
+	 *
+	 * @param position The position to reach.
+	 * @return <code>true</code> if the inflation has been restarted.
+	 *
+	 * @throws IOException - if an I/O error occurs.
+	 */
+	private boolean resume(long position) throws IOException {
+		if(raw == null)
+			return false;
+		int checkpoint = index.floor(position);
+		if(checkpoint < 0)
+			return false;
+		long checkpointPosition = index.getPosition(checkpoint);
+		if(position >= windowStart && checkpointPosition <= windowStart + window.limit())
+			return false;
+		raw.resume(index, checkpoint);
+		windowStart = checkpointPosition;
+		window.clear().flip();
+		return true;
+	}
+
+	/**
+	 * Gives the next compressed block to the inflater.
+	 *
+	 * @return <code>false</code> if there isn't any compressed byte left.
+	 *
+	 * @throws IOException - if an I/O error occurs.
+	 */
+	private boolean feed() throws IOException {
+		if(mapped != null)
+			return false;
+		long remaining = attrs.getCompressedSize() - sourcePosition;
+		if(remaining <= 0)
+			return false;
+		input.clear();
+		input.limit((int) Math.min(input.capacity(), remaining));
+		while(input.hasRemaining())
+			if(source.read(input, attrs.getOffset() + sourcePosition + input.position()) < 0)
+				throw new EOFException();
+		sourcePosition += input.limit();
+		input.flip();
+		inflater.setInput(input);
+		return true;
+	}
+
+	/**
+	 * Inflates the window following the current one.
+	 *
+	 * @return <code>false</code> if the end of the content has been reached.
+	 *
+	 * @throws IOException - if an I/O error occurs, if the content isn't PKZip, or if the CRC check fails.
+	 */
+	private boolean fill() throws IOException {
+		windowStart += window.limit();
+		window.clear();
+		boolean filled = raw != null ? fillRaw() : fillInflater();
+		if(crc != null && windowStart == checksummed) {
+			crc.update(window.duplicate());
+			checksummed += window.limit();
+			if(!filled || checksummed == attrs.size())
+				IpfFileSystem.checkCrc(attrs, crc.getValue());
+		}
+		return filled;
+	}
+
+	/**
+	 * Inflates the window following the current one through the borrowed {@link Inflater}.
+	 */
+	private boolean fillInflater() throws IOException {
+		try {
+			while(window.hasRemaining() && !inflater.finished()) {
+				if(inflater.needsInput() && !feed())
+					throw new EOFException("Truncated content: " + attrs.getPath());
+				if(inflater.inflate(window) == 0 && inflater.needsDictionary())
+					throw new DataFormatException("Unexpected dictionary.");
+			}
+		} catch (DataFormatException e) {
+			throw new IOException(e);
+		}
+		window.flip();
+		return window.hasRemaining();
+	}
+
+	/**
+	 * Inflates the window following the current one through the raw decoder, 
+	 * and caches the seek index once it covers the whole content.
+	 */
+	private boolean fillRaw() throws IOException {
+		try {
+			while(window.hasRemaining()) {
+				int count = raw.inflate(window.array(), window.position(), window.remaining());
+				if(count < 0)
+					break;
+				window.position(window.position() + count);
+			}
+		} catch (DataFormatException e) {
+			throw new IOException(e);
+		}
+		if(raw.finished() && !index.isComplete()) {
+			index.complete();
+			raw.setIndex(null);
+			ipffs.putSeekIndex(attrs, index);
+		}
+		window.flip();
+		return window.hasRemaining();
+	}
+
+	@Override
+	public synchronized boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if(!open)
+			return;
+		open = false;
+		if(inflater != null)
+			ipffs.getInflaterPool().release(inflater);
+		if(source != null)
+			source.close();
+		ipffs.unregister(this);
+	}
+
+	@Override
+	public synchronized int read(ByteBuffer dst) throws IOException {
+		ensureOpen();
+		if(position >= attrs.size())
+			return -1;
+		if(!resume(position) && position < windowStart)
+			restart();
+		while(position >= windowStart + window.limit())
+			if(!fill())
+				return -1;
+		int offset = (int) (position - windowStart);
+		int length = Math.min(dst.remaining(), window.limit() - offset);
+		ByteBuffer src = window.duplicate();
+		src.position(offset).limit(offset + length);
+		dst.put(src);
+		position += length;
+		return length;
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public synchronized long position() throws IOException {
+		ensureOpen();
+		return position;
+	}
+
+	@Override
+	public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+		ensureOpen();
+		if(newPosition < 0)
+			throw new IllegalArgumentException();
+		position = newPosition;
+		return this;
+	}
+
+	@Override
+	public synchronized long size() throws IOException {
+		ensureOpen();
+		return attrs.size();
+	}
+
+	@Override
+	public SeekableByteChannel truncate(long size) throws IOException {
+		throw new NonWritableChannelException();
+	}
+}
@@ -0,0 +1,111 @@
+package com.herestt.tos.nio.ipffs;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Inflater;
+
+/**
+ * A bounded pool of {@link Inflater}s.
+ *
+ * <p>Creating an {@link Inflater} allocates a native zlib state, which is released either by
+ * {@link Inflater#end()} or by a cleaner. Inflating thousands of small files per second this way
+ * puts pressure on both the native allocator and the cleaner thread, so the file system borrows
+ * its inflaters from this pool and gives them back once done.</p>
+ *
+ * <p>Inflaters are reset when they are given back. If the pool is full, they are ended instead.</p>
+ *
+ * @author Herestt
+ *
+ */
+public class IpfInflaterPool {
+
+	/** The idle inflaters. */
+	private final BlockingQueue<Inflater> idle;
+
+	private final int capacity;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * IPF Inflater Pool constructor.
+	 *
+	 * @param capacity The maximum count of idle inflaters kept by the pool.
+	 */
+	protected IpfInflaterPool(int capacity) {
+		this.capacity = Math.max(capacity, 1);
+		this.idle = new ArrayBlockingQueue<>(this.capacity);
+	}
+
+	/**
+	 * Borrows an inflater for raw deflate content.
+	 *
+	 * @return an inflater ready to be used.
+	 */
+	protected Inflater borrow() {
+		Inflater inflater = idle.poll();
+		if(inflater != null) {
+			hits.increment();
+			return inflater;
+		}
+		misses.increment();
+		return new Inflater(true);
+	}
+
+	/**
+	 * Gives an inflater back to the pool.
+	 *
+	 * @param inflater The inflater, which must not be used anymore by the caller.
+	 */
+	protected void release(Inflater inflater) {
+		inflater.reset();
+		if(!idle.offer(inflater))
+			inflater.end();
+	}
+
+	/**
+	 * Ends all the idle inflaters.
+	 */
+	protected void clear() {
+		Inflater inflater;
+		while((inflater = idle.poll()) != null)
+			inflater.end();
+	}
+
+	/**
+	 * Gets the maximum count of idle inflaters.
+	 *
+	 * @return the capacity.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Gets the current count of idle inflaters.
+	 *
+	 * @return the pool size.
+	 */
+	public int size() {
+		return idle.size();
+	}
+
+	/**
+	 * Gets the count of borrowings served by an idle inflater.
+	 *
+	 * @return the hit count.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Gets the count of borrowings that required a new inflater.
+	 *
+	 * @return the miss count.
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+}
@@ -19,6 +19,9 @@ import java.util.Iterator;
  * <p>Once the initialization is done, the {@link #process()} method will be called at each iteration so as
  * to parse and return the current element. If there is no more element, this function must return <code>null</code>.</p>
  * 
+ * <p>Iterators that don't read the IPF file can override {@link #requiresChannel()}, so that no channel
+ * is opened for them.</p>
+ * 
  * <p>In conclusion, an iterator has to implements both the {@link #init()} and the {@link #process()} 
  * methods.</p>
  * 
@@ -27,7 +30,6 @@ import java.util.Iterator;
  * @param <E> The data type of the elements that represents file attributes.
  * 
  * @see IpfDirectoryIterator
- * @see IpfFileAttributesIterator
  */
 public abstract class IpfIterator<E> implements Iterator<E> {
 	
@@ -61,22 +63,31 @@ public abstract class IpfIterator<E> implements Iterator<E> {
 	 */
 	public abstract E process();
 	
+	/**
+	 * Determines whether the iterator reads the IPF file through {@link #sbc}.
+	 * 
+	 * @return <code>true</code> if a channel must be supplied.
+	 */
+	protected boolean requiresChannel() {
+		return true;
+	}
+	
 	@Override
 	public boolean hasNext() {
 		if(!initialized) {
 			init();
 			initialized = true;
 		}
-		E entry = process();
-		if(entry == null)
-			return false;
-		try {
-			if((filter == null) || (filter.accept(entry))) {
-				next = entry;
-				return true;
+		E entry;
+		while((entry = process()) != null) {
+			try {
+				if((filter == null) || (filter.accept(entry))) {
+					next = entry;
+					return true;
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
 			}
-		} catch (IOException e) {
-			e.printStackTrace();
 		}
 		return false;
 	}
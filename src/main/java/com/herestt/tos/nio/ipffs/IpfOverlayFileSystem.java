@@ -0,0 +1,174 @@
+package com.herestt.tos.nio.ipffs;
+
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A read-only IPF file system merging several '.ipf' files.
+ *
+ * <p>The game ships a base set of '.ipf' files, then patches it with new '.ipf' files whose
+ * entries override the previous ones. An overlay file system mounts each '.ipf' file of an
+ * ordered list, then merges their file tables into a single one : when several '.ipf' files
+ * hold the same path, the last one wins. Looking up the current version of a file therefore
+ * costs a single lookup, whatever the count of '.ipf' files.</p>
+ *
+ * <p>The content of each file is still read from the '.ipf' file holding it, through the
+ * member file system returned by {@link #owner(IpfFileAttributes)}.</p>
+ *
+ * @see IpfFileSystemProvider#newOverlayFileSystem(Path, List, Map)
+ *
+ * @author Herestt
+ *
+ */
+public class IpfOverlayFileSystem extends IpfFileSystem {
+
+	/** The member file systems, in overriding order. */
+	private final IpfFileSystem[] members;
+
+	/** The position into {@link #members} of the owner of each file of the merged table. */
+	private final int[] owners;
+
+	/**
+	 * Mounts an overlay over an ordered list of '.ipf' files.
+	 *
+	 * @param provider The provider.
+	 * @param key The path the file system is registered under.
+	 * @param archives The '.ipf' files, each one overriding the previous ones.
+	 * @param env The file system properties, applied to every member.
+	 *
+	 * @throws IOException - if an I/O error occurs.
+	 */
+	protected IpfOverlayFileSystem(IpfFileSystemProvider provider, Path key,
+			List<Path> archives, Map<String, ?> env) throws IOException {
+		this(provider, key, env, merge(provider, archives, env));
+	}
+
+	private IpfOverlayFileSystem(IpfFileSystemProvider provider, Path key,
+			Map<String, ?> env, Merge merge) throws IOException {
+		super(provider, key, env, merge.table);
+		members = merge.members;
+		owners = merge.owners;
+	}
+
+	/**
+	 * Mounts the members and merges their file tables.
+	 */
+	private static Merge merge(IpfFileSystemProvider provider, List<Path> archives,
+			Map<String, ?> env) throws IOException {
+		if(archives.isEmpty())
+			throw new IllegalArgumentException("An overlay requires at least one '.ipf' file.");
+		Merge merge = new Merge();
+		merge.members = new IpfFileSystem[archives.size()];
+		merge.table = new IpfFileTable();
+		merge.owners = new int[16];
+		try {
+			for(int m = 0; m < merge.members.length; m++) {
+				IpfFileSystem member = new IpfFileSystem(provider, archives.get(m), env);
+				merge.members[m] = member;
+				IpfFileTable table = member.getTable();
+				for(int j = 0; j < table.size(); j++) {
+					int i = merge.table.put(table, j);
+					if(i == merge.owners.length)
+						merge.owners = Arrays.copyOf(merge.owners, i * 2);
+					merge.owners[i] = m;
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			for(IpfFileSystem member : merge.members)
+				if(member != null)
+					member.close();
+			throw e;
+		}
+		return merge;
+	}
+
+	/**
+	 * Lists the '.ipf' files of a directory, ordered by the revision of their footer.
+	 *
+	 * <p>Files sharing the same revision are ordered by name.</p>
+	 *
+	 * @param dir The directory.
+	 * @return the '.ipf' files, each one overriding the previous ones.
+	 *
+	 * @throws IOException - if an I/O error occurs.
+	 */
+	public static List<Path> listArchives(Path dir) throws IOException {
+		List<Path> archives = new ArrayList<>();
+		Map<Path, Long> revisions = new HashMap<>();
+		try(DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.ipf")) {
+			for(Path archive : stream) {
+				if(!Files.isRegularFile(archive))
+					continue;
+				try(SeekableByteChannel sbc = Files.newByteChannel(archive)) {
+					revisions.put(archive, IpfFileStore.read(archive.getFileName().toString(), sbc).getRevision());
+				}
+				archives.add(archive);
+			}
+		}
+		archives.sort(Comparator.<Path>comparingLong(revisions::get)
+				.thenComparing(archive -> archive.getFileName().toString()));
+		return archives;
+	}
+
+	@Override
+	public void close() throws IOException {
+		super.close();
+		for(IpfFileSystem member : members)
+			member.close();
+	}
+
+	@Override
+	public boolean isReadOnly() {
+		return true;
+	}
+
+	@Override
+	public Iterable<FileStore> getFileStores() {
+		Set<FileStore> stores = new LinkedHashSet<>();
+		for(IpfFileSystem member : members)
+			for(FileStore store : member.getFileStores())
+				stores.add(store);
+		return Collections.unmodifiableSet(stores);
+	}
+
+	/*** IPF Overlay File System Specific Methods ***/
+
+	/**
+	 * Gets the member file systems.
+	 *
+	 * @return the members, each one overriding the previous ones.
+	 */
+	public List<IpfFileSystem> getMembers() {
+		return Collections.unmodifiableList(Arrays.asList(members));
+	}
+
+	@Override
+	protected IpfFileSystem owner(IpfFileAttributes attrs) {
+		if(attrs.getTable() == getTable())
+			return members[owners[attrs.getIndex()]];
+		int i = getTable().indexOf(attrs.getPath());
+		return i < 0 ? this : members[owners[i]];
+	}
+
+	/**
+	 * The outcome of the merge of the member tables.
+	 */
+	private static class Merge {
+		private IpfFileSystem[] members;
+		private IpfFileTable table;
+		private int[] owners;
+	}
+}
@@ -3,13 +3,18 @@ package com.herestt.tos.nio.ipffs;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
+import java.nio.file.InvalidPathException;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
 import java.nio.file.WatchEvent.Kind;
 import java.nio.file.WatchEvent.Modifier;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * Describes an IPF file system <code>Path</code>.
@@ -21,23 +26,114 @@ import java.util.Iterator;
  * <p>Although the file system doesn't store the '/' character to represent the root,
  * this file system <code>Path</code> must specify it.</p>
  * 
+ * <p>A path is validated and split into names once, when it is created : only the offset of
+ * each name is kept, so that the name based operations don't split the path again, and
+ * {@link #equals(Object)}, {@link #hashCode()} and {@link #compareTo(Path)} don't allocate.</p>
+ * 
  * @author Herestt
  *
  */
 public class IpfPath implements Path {
 	
+	private static final int[] NO_NAMES = new int[0];
+	
 	private final IpfFileSystem ipffs;
 	private final String path;
 	
+	/** The offset of each name into {@link #path}, computed once when the path is created. */
+	private final int[] offsets;
+	
 	protected IpfPath(IpfFileSystem ipffs, String path) {
+		this(ipffs, path, parse(path));
+	}
+	
+	/**
+	 * Creates a path whose names are already known to be valid.
+	 */
+	private IpfPath(IpfFileSystem ipffs, String path, int[] offsets) {
 		this.ipffs = ipffs;
-		ensurePath(path);
 		this.path = path;
+		this.offsets = offsets;
 	}
 	
-	private void ensurePath(String path) {
-		if(!(path.matches("^(/?[a-zA-Z0-9_\\-]+)+(\\.[a-zA-Z]+)*$|/")))
-			throw new IllegalArgumentException();
+	/**
+	 * Validates a path and splits it into names.
+	 * 
+	 * <p>Names are made of letters, digits and the <code>'_'</code>, <code>'-'</code>
+	 * and <code>'.'</code> characters, and are separated by a single '/' character.</p>
+	 * 
+	 * @param path The path.
+	 * @return the offset of each name.
+	 */
+	private static int[] parse(String path) {
+		int length = path.length();
+		int from = length > 0 && path.charAt(0) == '/' ? 1 : 0;
+		if(from == length)
+			return NO_NAMES;
+		int count = 1;
+		for(int i = from; i < length; i++) {
+			char c = path.charAt(i);
+			if(c == '/') {
+				if(i == from || path.charAt(i - 1) == '/' || i == length - 1)
+					throw new InvalidPathException(path, "Empty name", i);
+				count++;
+			}
+			else if(!isNameChar(c))
+				throw new InvalidPathException(path, "Illegal character", i);
+		}
+		int[] offsets = new int[count];
+		offsets[0] = from;
+		for(int i = from, k = 1; k < count; i++)
+			if(path.charAt(i) == '/')
+				offsets[k++] = i + 1;
+		return offsets;
+	}
+	
+	private static boolean isNameChar(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+				|| c == '_' || c == '-' || c == '.';
+	}
+	
+	/**
+	 * Gets the offset right after a name.
+	 */
+	private int end(int index) {
+		return index + 1 < offsets.length ? offsets[index + 1] - 1 : path.length();
+	}
+	
+	/**
+	 * Determines whether a name of this path equals a name of another one.
+	 */
+	private boolean nameEquals(int index, IpfPath other, int otherIndex) {
+		int length = end(index) - offsets[index];
+		return length == other.end(otherIndex) - other.offsets[otherIndex]
+				&& path.regionMatches(offsets[index], other.path, other.offsets[otherIndex], length);
+	}
+	
+	/**
+	 * Determines whether a name of this path is '.' or '..'.
+	 */
+	private boolean isName(int index, String name) {
+		return end(index) - offsets[index] == name.length() && path.startsWith(name, offsets[index]);
+	}
+	
+	/**
+	 * Creates the relative path made of a range of names.
+	 */
+	private IpfPath names(int beginIndex, int endIndex) {
+		int from = offsets[beginIndex];
+		int[] sub = new int[endIndex - beginIndex];
+		for(int i = 0; i < sub.length; i++)
+			sub[i] = offsets[beginIndex + i] - from;
+		return new IpfPath(ipffs, path.substring(from, end(endIndex - 1)), sub);
+	}
+	
+	private IpfPath toIpfPath(Path other) {
+		if(other == null)
+			throw new NullPointerException();
+		if(!(other instanceof IpfPath) || ((IpfPath) other).ipffs != ipffs)
+			throw new ProviderMismatchException();
+		return (IpfPath) other;
 	}
 	
 	public IpfFileSystem getFileSystem() {
@@ -45,153 +141,188 @@ public class IpfPath implements Path {
 	}
 
 	public boolean isAbsolute() {
-		if(path.startsWith("/"))
-			return true;
-		return false;
+		return path.length() > 0 && path.charAt(0) == '/';
 	}
 
 	public Path getRoot() {
 		if(isAbsolute())
-			return new IpfPath(ipffs, "/");
+			return offsets.length == 0 ? this : new IpfPath(ipffs, "/", NO_NAMES);
 		return null;
 	}
 
 	public Path getFileName() {
-		if(path.length() == 0)
+		if(offsets.length == 0)
 			return null;
-		if(path.length() == 1 && path != "/")
+		if(offsets.length == 1 && !isAbsolute())
 			return this;
-		String[] elements = path.split("/");
-		return new IpfPath(ipffs, elements[elements.length - 1]);
+		return names(offsets.length - 1, offsets.length);
 	}
 
 	public Path getParent() {
-		if(path.length() == 0)
+		int nameCount = offsets.length;
+		if(nameCount == 0)
 			return null;
-		int nameCount = getNameCount();
-		if(nameCount == 1 && isAbsolute())
+		if(nameCount == 1)
 			return getRoot();
-		if(nameCount > 0)
-			return subpath(0, nameCount- 1);
-		return null;
+		return new IpfPath(ipffs, path.substring(0, offsets[nameCount - 1] - 1),
+				Arrays.copyOf(offsets, nameCount - 1));
 	}
 
 	public int getNameCount() {
-		if(path.equals(getRoot().toString()))
-			return 0;
-		if(isAbsolute())
-			return path.split("/").length - 1;
-		else
-			return path.split("/").length;
+		return offsets.length;
 	}
 
 	public Path getName(int index) {
-		if(isAbsolute())
-			index ++;
-		return new IpfPath(ipffs, path.split("/")[index]);
+		if(index < 0 || index >= offsets.length)
+			throw new IllegalArgumentException();
+		return names(index, index + 1);
 	}
 
 	public Path subpath(int beginIndex, int endIndex) {
-		if(beginIndex < 0 ||
-				beginIndex >= path.length() ||
-				endIndex > path.length() ||
-				beginIndex >= endIndex)
-				throw new IllegalArgumentException();
-			
-			String[] elements = path.split("/");
-			String first = "";
-			String[] more;
-			
-			if(isAbsolute() && beginIndex == 0)
-				first = "/";
-			
-			if(elements.length > 0) {
-				first += elements[1];
-				int length = endIndex - beginIndex - 1;
-				more = new String[length];
-				System.arraycopy(elements, beginIndex + 2, more, 0, length);
-			}
-			else
-				more = new String[0];
-			
-			return ipffs.getPath(first, more);
+		if(beginIndex < 0 || endIndex > offsets.length || beginIndex >= endIndex)
+			throw new IllegalArgumentException();
+		return names(beginIndex, endIndex);
 	}
 
 	public boolean startsWith(Path other) {
-		if(!(other instanceof IpfPath))
+		if(!(other instanceof IpfPath) || ((IpfPath) other).ipffs != ipffs)
 			return false;
-		if(getNameCount() < other.getNameCount())
-			return false;		
-		if(!isAbsolute() || !other.isAbsolute())
+		IpfPath prefix = (IpfPath) other;
+		if(isAbsolute() != prefix.isAbsolute() || offsets.length < prefix.offsets.length)
 			return false;
-		int nameCount = other.getNameCount();
-		for(int i = 0; i < nameCount; i++) {
-			String name = getName(i).toString();
-			String otherName = other.getName(i).toString();
-			if(!name.equals(otherName))
+		if(prefix.path.isEmpty())
+			return path.isEmpty();
+		for(int i = 0; i < prefix.offsets.length; i++)
+			if(!nameEquals(i, prefix, i))
 				return false;
-		}
 		return true;
 	}
 
 	public boolean startsWith(String other) {
-		// TODO Auto-generated method stub
-		return false;
+		return startsWith(ipffs.getPath(other));
 	}
 
 	public boolean endsWith(Path other) {
-		// TODO Auto-generated method stub
-		return false;
+		if(!(other instanceof IpfPath) || ((IpfPath) other).ipffs != ipffs)
+			return false;
+		IpfPath suffix = (IpfPath) other;
+		if(suffix.isAbsolute())
+			return equals(suffix);
+		if(suffix.path.isEmpty())
+			return path.isEmpty();
+		int shift = offsets.length - suffix.offsets.length;
+		if(shift < 0)
+			return false;
+		for(int i = 0; i < suffix.offsets.length; i++)
+			if(!nameEquals(shift + i, suffix, i))
+				return false;
+		return true;
 	}
 
 	public boolean endsWith(String other) {
-		// TODO Auto-generated method stub
-		return false;
+		return endsWith(ipffs.getPath(other));
 	}
 
 	public Path normalize() {
-		// TODO Auto-generated method stub
-		return null;
+		int nameCount = offsets.length;
+		int[] kept = new int[nameCount];
+		int count = 0;
+		boolean changed = false;
+		for(int i = 0; i < nameCount; i++) {
+			if(isName(i, "."))
+				changed = true;
+			else if(isName(i, "..") && count > 0 && !isName(kept[count - 1], "..")) {
+				count--;
+				changed = true;
+			}
+			else if(isName(i, "..") && count == 0 && isAbsolute())
+				changed = true;		// The parent of the root is the root.
+			else
+				kept[count++] = i;
+		}
+		if(!changed)
+			return this;
+		StringBuilder sb = new StringBuilder(path.length());
+		if(isAbsolute())
+			sb.append('/');
+		for(int k = 0; k < count; k++) {
+			if(k > 0)
+				sb.append('/');
+			sb.append(path, offsets[kept[k]], end(kept[k]));
+		}
+		return new IpfPath(ipffs, sb.toString());
 	}
 
 	public Path resolve(Path other) {
-		// TODO Auto-generated method stub
-		return null;
+		IpfPath child = toIpfPath(other);
+		if(child.isAbsolute())
+			return child;
+		if(child.path.isEmpty())
+			return this;
+		if(path.isEmpty())
+			return child;
+		int from = offsets.length == 0 ? path.length() : path.length() + 1;
+		int[] resolved = Arrays.copyOf(offsets, offsets.length + child.offsets.length);
+		for(int i = 0; i < child.offsets.length; i++)
+			resolved[offsets.length + i] = from + child.offsets[i];
+		return new IpfPath(ipffs, offsets.length == 0 ? path + child.path : path + "/" + child.path, resolved);
 	}
 
 	public Path resolve(String other) {
-		// TODO Auto-generated method stub
-		return null;
+		return resolve(ipffs.getPath(other));
 	}
 
 	public Path resolveSibling(Path other) {
-		// TODO Auto-generated method stub
-		return null;
+		IpfPath sibling = toIpfPath(other);
+		Path parent = getParent();
+		return parent == null ? sibling : parent.resolve(sibling);
 	}
 
 	public Path resolveSibling(String other) {
-		// TODO Auto-generated method stub
-		return null;
+		return resolveSibling(ipffs.getPath(other));
 	}
 
 	public Path relativize(Path other) {
-		// TODO Auto-generated method stub
-		return null;
+		IpfPath target = toIpfPath(other);
+		if(isAbsolute() != target.isAbsolute())
+			throw new IllegalArgumentException("'other' is different type of Path");
+		if(equals(target))
+			return new IpfPath(ipffs, "", NO_NAMES);
+		int common = 0;
+		int max = Math.min(offsets.length, target.offsets.length);
+		while(common < max && nameEquals(common, target, common))
+			common++;
+		StringBuilder sb = new StringBuilder();
+		for(int i = common; i < offsets.length; i++) {
+			if(sb.length() > 0)
+				sb.append('/');
+			sb.append("..");
+		}
+		if(common < target.offsets.length) {
+			if(sb.length() > 0)
+				sb.append('/');
+			sb.append(target.path, target.offsets[common], target.path.length());
+		}
+		return new IpfPath(ipffs, sb.toString());
 	}
 
 	public URI toUri() {
-		// TODO Auto-generated method stub
-		return null;
+		String fsUri = ipffs.getFileSystemPath().toUri().toString();
+		if(fsUri.endsWith("/"))
+			fsUri = fsUri.substring(0, fsUri.length() - 1);
+		return URI.create(ipffs.provider().getScheme() + ":" + fsUri + toAbsolutePath());
 	}
 
 	public Path toAbsolutePath() {
-		// TODO Auto-generated method stub
-		return null;
+		if(isAbsolute())
+			return this;
+		return new IpfPath(ipffs, "/" + path);
 	}
 
 	public Path toRealPath(LinkOption... options) throws IOException {
-		// TODO Auto-generated method stub
-		return null;
+		IpfPath real = (IpfPath) toAbsolutePath().normalize();
+		IpfFileSystem.getFileAttributes(real, BasicFileAttributes.class);	// Fails if the file doesn't exist.
+		return real;
 	}
 
 	public File toFile() {
@@ -209,13 +340,41 @@ public class IpfPath implements Path {
 	}
 
 	public Iterator<Path> iterator() {
-		// TODO Auto-generated method stub
-		return null;
+		return new Iterator<Path>() {
+			
+			private int i = 0;
+			
+			@Override
+			public boolean hasNext() {
+				return i < offsets.length;
+			}
+			
+			@Override
+			public Path next() {
+				if(i >= offsets.length)
+					throw new NoSuchElementException();
+				return getName(i++);
+			}
+		};
 	}
 
 	public int compareTo(Path other) {
-		// TODO Auto-generated method stub
-		return 0;
+		return path.compareTo(((IpfPath) other).path);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if(this == obj)
+			return true;
+		if(!(obj instanceof IpfPath))
+			return false;
+		IpfPath other = (IpfPath) obj;
+		return ipffs == other.ipffs && path.equals(other.path);
+	}
+
+	@Override
+	public int hashCode() {
+		return path.hashCode();
 	}
 
 	@Override
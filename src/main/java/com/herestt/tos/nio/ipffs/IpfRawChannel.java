@@ -0,0 +1,148 @@
+package com.herestt.tos.nio.ipffs;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only {@link SeekableByteChannel} serving the content of a stored file as held by the
+ * '.ipf' file, without inflating it.
+ *
+ * <p>The channel is a window over the region of the '.ipf' file starting at the offset of the file,
+ * and as long as its compressed size. It serves raw deflate data, or the bytes of a file stored as
+ * is. Such a content can be sent as is to clients accepting deflate data, for instance.</p>
+ *
+ * <p>The content is read from a {@link FileChannel} of its own, so that
+ * {@link #transferTo(long, long, WritableByteChannel)} lets the operating system copy it to a file
+ * or a socket without going through memory.</p>
+ *
+ * @author Herestt
+ *
+ */
+public class IpfRawChannel implements SeekableByteChannel {
+
+	/** The file system the channel is registered to. */
+	private final IpfFileSystem ipffs;
+
+	/** The channel connected to the '.ipf' file, or <code>null</code> once closed. */
+	private FileChannel fc;
+
+	/** The offset of the content into the '.ipf' file. */
+	private final long offset;
+
+	/** The size of the content, as held by the '.ipf' file. */
+	private final long size;
+
+	private long position = 0;
+
+	/**
+	 * IPF Raw Channel constructor.
+	 *
+	 * @param ipffs The file system the channel is registered to, holding the content.
+	 * @param attrs The attributes of the file.
+	 *
+	 * @throws IOException - if an I/O error occurs.
+	 */
+	protected IpfRawChannel(IpfFileSystem ipffs, IpfFileAttributes attrs) throws IOException {
+		this.ipffs = ipffs;
+		this.offset = attrs.getOffset();
+		this.size = attrs.getCompressedSize();
+		this.fc = FileChannel.open(ipffs.getFileSystemPath(), StandardOpenOption.READ);
+	}
+
+	private void ensureOpen() throws ClosedChannelException {
+		if(fc == null)
+			throw new ClosedChannelException();
+	}
+
+	@Override
+	public synchronized boolean isOpen() {
+		return fc != null;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if(fc == null)
+			return;
+		try {
+			fc.close();
+		} finally {
+			fc = null;
+			ipffs.unregister(this);
+		}
+	}
+
+	@Override
+	public synchronized int read(ByteBuffer dst) throws IOException {
+		ensureOpen();
+		if(position >= size)
+			return -1;
+		ByteBuffer window = dst.duplicate();
+		window.limit(window.position() + (int) Math.min(dst.remaining(), size - position));
+		int count = fc.read(window, offset + position);
+		if(count < 0)
+			throw new EOFException();
+		dst.position(window.position());
+		position += count;
+		return count;
+	}
+
+	/**
+	 * Transfers a region of the content to another channel.
+	 *
+	 * <p>The region is transferred by {@link FileChannel#transferTo(long, long, WritableByteChannel)}
+	 * and, like it, may be transferred partially. The position of the channel is left unchanged.</p>
+	 *
+	 * @param position The start of the region.
+	 * @param count The maximum count of bytes to transfer.
+	 * @param target The channel to transfer the region to.
+	 * @return the count of bytes transferred, possibly zero.
+	 *
+	 * @throws IOException - if an I/O error occurs.
+	 */
+	public synchronized long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+		ensureOpen();
+		if(position < 0 || count < 0)
+			throw new IllegalArgumentException();
+		if(position >= size)
+			return 0;
+		return fc.transferTo(offset + position, Math.min(count, size - position), target);
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public synchronized long position() throws IOException {
+		ensureOpen();
+		return position;
+	}
+
+	@Override
+	public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+		ensureOpen();
+		if(newPosition < 0)
+			throw new IllegalArgumentException();
+		position = newPosition;
+		return this;
+	}
+
+	@Override
+	public synchronized long size() throws IOException {
+		ensureOpen();
+		return size;
+	}
+
+	@Override
+	public SeekableByteChannel truncate(long size) throws IOException {
+		throw new NonWritableChannelException();
+	}
+}
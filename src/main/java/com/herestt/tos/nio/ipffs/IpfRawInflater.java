@@ -0,0 +1,506 @@
+package com.herestt.tos.nio.ipffs;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+
+/**
+ * A raw deflate decoder whose state can be saved and restored.
+ *
+ * <p>{@link java.util.zip.Inflater} can neither report the boundaries of the deflate blocks nor
+ * resume in the middle of a stream. This decoder can : at each block boundary, its whole state
+ * is described by the bit position of the next block into the compressed content, the count of
+ * inflated bytes, and the last 32KB of inflated content. Those checkpoints are recorded into an
+ * {@link IpfSeekIndex}, and {@link #resume(IpfSeekIndex, int)} restarts the decoding from any of them.</p>
+ *
+ * <p>The compressed content is either read from a buffer, typically a slice of the mapping of the
+ * file system, or from a channel connected to the '.ipf' file by blocks of {@link #INPUT_SIZE} bytes.</p>
+ *
+ * @author Herestt
+ *
+ */
+public class IpfRawInflater {
+
+	/** The size of the compressed blocks read from the channel. */
+	private static final int INPUT_SIZE = 16 * 1024;
+
+	/** The size of the history window of the deflate format. */
+	protected static final int WINDOW_SIZE = 32 * 1024;
+
+	private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+
+	private static final int MAX_BITS = 15;
+
+	/** The count of bits resolved at once through the lookup tables. */
+	private static final int FAST_BITS = 9;
+
+	private static final short[] LENGTH_BASE = { 3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27,
+			31, 35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258 };
+	private static final byte[] LENGTH_EXTRA = { 0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3,
+			3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0 };
+	private static final short[] DISTANCE_BASE = { 1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97,
+			129, 193, 257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577 };
+	private static final byte[] DISTANCE_EXTRA = { 0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7,
+			7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13 };
+	private static final byte[] CODE_LENGTH_ORDER = { 16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3,
+			13, 2, 14, 1, 15 };
+
+	private static final Huffman FIXED_LENGTHS;
+	private static final Huffman FIXED_DISTANCES;
+
+	static {
+		byte[] lengths = new byte[288];
+		for(int i = 0; i < 288; i++)
+			lengths[i] = (byte) (i < 144 ? 8 : i < 256 ? 9 : i < 280 ? 7 : 8);
+		byte[] distances = new byte[30];
+		java.util.Arrays.fill(distances, (byte) 5);
+		try {
+			FIXED_LENGTHS = new Huffman(288);
+			FIXED_LENGTHS.build(lengths, 0, 288);
+			FIXED_DISTANCES = new Huffman(30);
+			FIXED_DISTANCES.build(distances, 0, 30);
+		} catch (DataFormatException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private enum State { HEADER, STORED, HUFFMAN, DONE }
+
+	/** The compressed content when it is held by a buffer, <code>null</code> otherwise. */
+	private final ByteBuffer buffer;
+
+	/** The channel connected to the '.ipf' file when the content isn't held by a buffer. */
+	private final FileChannel source;
+
+	/** The offset of the compressed content into the '.ipf' file. */
+	private final long offset;
+
+	/** The size of the compressed content. */
+	private final long length;
+
+	/** The compressed bytes that haven't been moved into the bit buffer yet. */
+	private ByteBuffer input;
+
+	/** The count of compressed bytes moved into the bit buffer. */
+	private long inputPosition;
+
+	private long bitBuffer;
+	private int bitCount;
+
+	private State state;
+	private boolean lastBlock;
+	private int storedRemaining;
+	private Huffman lengths;
+	private Huffman distances;
+	private final Huffman dynamicLengths = new Huffman(288);
+	private final Huffman dynamicDistances = new Huffman(30);
+	private final Huffman codeLengths = new Huffman(19);
+	private final byte[] codeLengthBuffer = new byte[288 + 32];
+
+	/** The pending copy of a length/distance pair, interrupted because the output was full. */
+	private int copyLength;
+	private int copyDistance;
+
+	/** The last inflated bytes. */
+	private final byte[] window = new byte[WINDOW_SIZE];
+
+	/** The count of inflated bytes. */
+	private long total;
+
+	/** The index recording the checkpoints, or <code>null</code>. */
+	private IpfSeekIndex index;
+
+	/**
+	 * Creates a decoder over a compressed content held by a buffer.
+	 *
+	 * @param compressed The compressed content, from its position to its limit.
+	 */
+	protected IpfRawInflater(ByteBuffer compressed) {
+		this.buffer = compressed.slice();
+		this.source = null;
+		this.offset = 0;
+		this.length = buffer.limit();
+		reset();
+	}
+
+	/**
+	 * Creates a decoder over a compressed content read from a channel.
+	 *
+	 * @param source The channel connected to the '.ipf' file.
+	 * @param offset The offset of the compressed content.
+	 * @param length The size of the compressed content.
+	 */
+	protected IpfRawInflater(FileChannel source, long offset, long length) {
+		this.buffer = null;
+		this.source = source;
+		this.offset = offset;
+		this.length = length;
+		this.input = ByteBuffer.allocate(INPUT_SIZE);
+		reset();
+	}
+
+	/**
+	 * Sets the index recording the checkpoints met while decoding.
+	 *
+	 * @param index The index, or <code>null</code> to stop recording.
+	 */
+	protected void setIndex(IpfSeekIndex index) {
+		this.index = index;
+	}
+
+	/**
+	 * Restarts the decoding from the beginning of the compressed content.
+	 */
+	protected void reset() {
+		seekInput(0);
+		state = State.HEADER;
+		lastBlock = false;
+		copyLength = 0;
+		total = 0;
+	}
+
+	/**
+	 * Restarts the decoding from a checkpoint.
+	 *
+	 * @param index The index holding the checkpoint.
+	 * @param checkpoint The position of the checkpoint into the index.
+	 *
+	 * @throws IOException - if an I/O error occurs.
+	 */
+	protected void resume(IpfSeekIndex index, int checkpoint) throws IOException {
+		long bitPosition = index.getBitPosition(checkpoint);
+		seekInput(bitPosition >>> 3);
+		try {
+			bits((int) (bitPosition & 7));
+		} catch (DataFormatException e) {
+			throw new IOException(e);
+		}
+		total = index.getPosition(checkpoint);
+		byte[] history = index.getWindow(checkpoint);
+		long start = total - history.length;
+		for(int i = 0; i < history.length; i++)
+			window[(int) ((start + i) & WINDOW_MASK)] = history[i];
+		state = State.HEADER;
+		lastBlock = false;
+		copyLength = 0;
+	}
+
+	/**
+	 * Gets the count of inflated bytes.
+	 *
+	 * @return the position into the inflated content.
+	 */
+	protected long getPosition() {
+		return total;
+	}
+
+	/**
+	 * Determines whether the end of the compressed content has been reached.
+	 *
+	 * @return <code>true</code> if the last block has been decoded.
+	 */
+	protected boolean finished() {
+		return state == State.DONE;
+	}
+
+	/**
+	 * Inflates the next bytes.
+	 *
+	 * @param dst The array to inflate into.
+	 * @param off The position of the first byte to write.
+	 * @param len The maximum count of bytes to write.
+	 * @return the count of inflated bytes, or <code>-1</code> if the end of the content has been reached.
+	 *
+	 * @throws IOException - if an I/O error occurs.
+	 * @throws DataFormatException - if the content isn't raw deflate.
+	 */
+	protected int inflate(byte[] dst, int off, int len) throws IOException, DataFormatException {
+		int n = 0;
+		while(n < len) {
+			if(copyLength > 0) {
+				int count = Math.min(copyLength, len - n);
+				for(int i = 0; i < count; i++)
+					dst[off + n++] = put(window[(int) ((total - copyDistance) & WINDOW_MASK)]);
+				copyLength -= count;
+				continue;
+			}
+			switch(state) {
+			case HEADER:
+				if(lastBlock) {
+					state = State.DONE;
+					break;
+				}
+				if(index != null && total >= index.getNextPosition())
+					index.add(inputPosition * 8 - bitCount, total, history());
+				header();
+				break;
+			case STORED:
+				if(storedRemaining == 0)
+					state = State.HEADER;
+				else {
+					dst[off + n++] = put((byte) bits(8));
+					storedRemaining--;
+				}
+				break;
+			case HUFFMAN:
+				int symbol = decode(lengths);
+				if(symbol < 256)
+					dst[off + n++] = put((byte) symbol);
+				else if(symbol == 256)
+					state = State.HEADER;
+				else {
+					symbol -= 257;
+					if(symbol >= LENGTH_BASE.length)
+						throw new DataFormatException("Invalid length symbol.");
+					copyLength = LENGTH_BASE[symbol] + bits(LENGTH_EXTRA[symbol]);
+					symbol = decode(distances);
+					if(symbol >= DISTANCE_BASE.length)
+						throw new DataFormatException("Invalid distance symbol.");
+					copyDistance = DISTANCE_BASE[symbol] + bits(DISTANCE_EXTRA[symbol]);
+					if(copyDistance > total)
+						throw new DataFormatException("Distance too far back.");
+				}
+				break;
+			case DONE:
+				return n == 0 ? -1 : n;
+			}
+		}
+		return n;
+	}
+
+	private byte put(byte b) {
+		window[(int) (total++ & WINDOW_MASK)] = b;
+		return b;
+	}
+
+	/**
+	 * Copies the last inflated bytes, oldest first.
+	 */
+	private byte[] history() {
+		int size = (int) Math.min(total, WINDOW_SIZE);
+		byte[] history = new byte[size];
+		long start = total - size;
+		for(int i = 0; i < size; i++)
+			history[i] = window[(int) ((start + i) & WINDOW_MASK)];
+		return history;
+	}
+
+	/**
+	 * Decodes a block header.
+	 */
+	private void header() throws IOException, DataFormatException {
+		lastBlock = bits(1) == 1;
+		switch(bits(2)) {
+		case 0:
+			bits(bitCount & 7);
+			int size = bits(16);
+			if((size ^ 0xFFFF) != bits(16))
+				throw new DataFormatException("Invalid stored block length.");
+			storedRemaining = size;
+			state = State.STORED;
+			break;
+		case 1:
+			lengths = FIXED_LENGTHS;
+			distances = FIXED_DISTANCES;
+			state = State.HUFFMAN;
+			break;
+		case 2:
+			dynamic();
+			state = State.HUFFMAN;
+			break;
+		default:
+			throw new DataFormatException("Invalid block type.");
+		}
+	}
+
+	/**
+	 * Decodes the code lengths of a dynamic block.
+	 */
+	private void dynamic() throws IOException, DataFormatException {
+		int literalCount = bits(5) + 257;
+		int distanceCount = bits(5) + 1;
+		int codeCount = bits(4) + 4;
+		if(literalCount > 286 || distanceCount > 30)
+			throw new DataFormatException("Invalid code counts.");
+		byte[] lengthBuffer = codeLengthBuffer;
+		java.util.Arrays.fill(lengthBuffer, 0, 19, (byte) 0);
+		for(int i = 0; i < codeCount; i++)
+			lengthBuffer[CODE_LENGTH_ORDER[i]] = (byte) bits(3);
+		codeLengths.build(lengthBuffer, 0, 19);
+		int count = literalCount + distanceCount;
+		int i = 0;
+		while(i < count) {
+			int symbol = decode(codeLengths);
+			if(symbol < 16) {
+				lengthBuffer[i++] = (byte) symbol;
+				continue;
+			}
+			byte value = 0;
+			int repeat;
+			if(symbol == 16) {
+				if(i == 0)
+					throw new DataFormatException("Repeat without previous length.");
+				value = lengthBuffer[i - 1];
+				repeat = 3 + bits(2);
+			}
+			else if(symbol == 17)
+				repeat = 3 + bits(3);
+			else
+				repeat = 11 + bits(7);
+			if(i + repeat > count)
+				throw new DataFormatException("Too many code lengths.");
+			while(repeat-- > 0)
+				lengthBuffer[i++] = value;
+		}
+		if(lengthBuffer[256] == 0)
+			throw new DataFormatException("Missing end of block code.");
+		dynamicLengths.build(lengthBuffer, 0, literalCount);
+		dynamicDistances.build(lengthBuffer, literalCount, distanceCount);
+		lengths = dynamicLengths;
+		distances = dynamicDistances;
+	}
+
+	/**
+	 * Decodes a symbol.
+	 */
+	private int decode(Huffman h) throws IOException, DataFormatException {
+		fill(MAX_BITS);
+		int entry = h.fast[(int) (bitBuffer & ((1 << FAST_BITS) - 1))];
+		int size = entry & 0xF;
+		if(size != 0 && size <= bitCount) {
+			bitBuffer >>>= size;
+			bitCount -= size;
+			return entry >>> 4;
+		}
+		int code = 0, first = 0, index = 0;
+		for(int len = 1; len <= MAX_BITS && len <= bitCount; len++) {
+			code |= (int) (bitBuffer >>> (len - 1)) & 1;
+			int count = h.count[len];
+			if(code - count < first) {
+				bitBuffer >>>= len;
+				bitCount -= len;
+				return h.symbol[index + (code - first)];
+			}
+			index += count;
+			first = (first + count) << 1;
+			code <<= 1;
+		}
+		throw new DataFormatException(bitCount < MAX_BITS ? "Truncated content." : "Invalid code.");
+	}
+
+	/**
+	 * Reads bits, least significant first.
+	 */
+	private int bits(int n) throws IOException, DataFormatException {
+		if(n == 0)
+			return 0;
+		fill(n);
+		if(bitCount < n)
+			throw new DataFormatException("Truncated content.");
+		int value = (int) (bitBuffer & ((1L << n) - 1));
+		bitBuffer >>>= n;
+		bitCount -= n;
+		return value;
+	}
+
+	/**
+	 * Moves compressed bytes into the bit buffer until it holds at least <code>n</code> bits,
+	 * or until the end of the compressed content.
+	 */
+	private void fill(int n) throws IOException {
+		while(bitCount < n) {
+			if(!input.hasRemaining() && !refill())
+				return;
+			bitBuffer |= (long) (input.get() & 0xFF) << bitCount;
+			bitCount += 8;
+			inputPosition++;
+		}
+	}
+
+	private boolean refill() throws IOException {
+		if(source == null)
+			return false;
+		long remaining = length - inputPosition;
+		if(remaining <= 0)
+			return false;
+		input.clear();
+		input.limit((int) Math.min(input.capacity(), remaining));
+		while(input.hasRemaining())
+			if(source.read(input, offset + inputPosition + input.position()) < 0)
+				throw new EOFException();
+		input.flip();
+		return true;
+	}
+
+	private void seekInput(long position) {
+		inputPosition = position;
+		bitBuffer = 0;
+		bitCount = 0;
+		if(source == null) {
+			input = buffer.duplicate();
+			input.position((int) position);
+		}
+		else
+			input.clear().flip();
+	}
+
+	/**
+	 * A canonical Huffman code.
+	 *
+	 * Symbols whose code is at most {@link IpfRawInflater#FAST_BITS} bits long are resolved through
+	 * a lookup table indexed by the next bits of the input, the others bit by bit.
+	 */
+	private static class Huffman {
+
+		/** The count of codes of each length. */
+		private final short[] count = new short[MAX_BITS + 1];
+
+		/** The symbols ordered by code. */
+		private final short[] symbol;
+
+		/** The lookup table, holding the symbol shifted by four bits and the code length. */
+		private final int[] fast = new int[1 << FAST_BITS];
+
+		private final short[] offsets = new short[MAX_BITS + 1];
+
+		private Huffman(int symbols) {
+			symbol = new short[symbols];
+		}
+
+		private void build(byte[] lengths, int off, int n) throws DataFormatException {
+			java.util.Arrays.fill(count, (short) 0);
+			java.util.Arrays.fill(fast, 0);
+			for(int i = 0; i < n; i++)
+				count[lengths[off + i]]++;
+			if(count[0] == n)
+				return;
+			int left = 1;
+			for(int len = 1; len <= MAX_BITS; len++) {
+				left <<= 1;
+				left -= count[len];
+				if(left < 0)
+					throw new DataFormatException("Over-subscribed code.");
+			}
+			offsets[1] = 0;
+			for(int len = 1; len < MAX_BITS; len++)
+				offsets[len + 1] = (short) (offsets[len] + count[len]);
+			for(int i = 0; i < n; i++)
+				if(lengths[off + i] != 0)
+					symbol[offsets[lengths[off + i]]++] = (short) i;
+			int code = 0, index = 0;
+			for(int len = 1; len <= MAX_BITS; len++) {
+				for(int k = 0; k < count[len]; k++, code++) {
+					int s = symbol[index++];
+					if(len > FAST_BITS)
+						continue;
+					int reversed = Integer.reverse(code) >>> (32 - len);
+					for(int j = reversed; j < fast.length; j += 1 << len)
+						fast[j] = (s << 4) | len;
+				}
+				code <<= 1;
+			}
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package com.herestt.tos.nio.ipffs;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+
+/**
+ * The options of a repacking made through {@link IpfFileSystem#repack(Path, IpfRepackOptions)}.
+ *
+ * <p>By default, every file is copied as it is, the files are laid out directory by directory,
+ * and the revisions of the source '.ipf' files are kept.</p>
+ *
+ * @author Herestt
+ *
+ */
+public class IpfRepackOptions {
+
+	/** The executor the replaced contents are deflated on. */
+	private Executor executor = ForkJoinPool.commonPool();
+
+	/** The compression level of the replaced contents. */
+	private int level = Deflater.DEFAULT_COMPRESSION;
+
+	/** The paths of the files to lay out first, in order. */
+	private List<String> order = Collections.emptyList();
+
+	/** The new contents, keyed by the path of the file they replace or add. */
+	private final Map<String, Path> replacements = new LinkedHashMap<>();
+
+	/** The revisions to write into the footer, or <code>-1</code> to keep the ones of the source. */
+	private long baseRevision = -1;
+	private long revision = -1;
+
+	public IpfRepackOptions() {}
+
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Sets the executor the replaced contents are deflated on.
+	 *
+	 * @param executor The new executor.
+	 */
+	public void setExecutor(Executor executor) {
+		if(executor == null)
+			throw new NullPointerException();
+		this.executor = executor;
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	/**
+	 * Sets the compression level of the replaced contents.
+	 *
+	 * @param level The compression level, from 0 to 9.
+	 */
+	public void setLevel(int level) {
+		if((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION)
+			throw new IllegalArgumentException("Invalid compression level: " + level);
+		this.level = level;
+	}
+
+	public List<String> getOrder() {
+		return order;
+	}
+
+	/**
+	 * Sets the files to lay out first, for instance in the order they are read when the game starts.
+	 *
+	 * <p>The other files follow, directory by directory.</p>
+	 *
+	 * @param order The paths of the files, in order.
+	 */
+	public void setOrder(List<String> order) {
+		this.order = Collections.unmodifiableList(new ArrayList<>(order));
+	}
+
+	public Map<String, Path> getReplacements() {
+		return Collections.unmodifiableMap(replacements);
+	}
+
+	/**
+	 * Replaces the content of a file, or adds a new file.
+	 *
+	 * @param path The path of the file.
+	 * @param content The file holding the new content, in the default file system.
+	 */
+	public void setReplacement(String path, Path content) {
+		if(path.startsWith("/"))
+			path = path.substring(1);
+		replacements.put(path, content);
+	}
+
+	public long getBaseRevision() {
+		return baseRevision;
+	}
+
+	public long getRevision() {
+		return revision;
+	}
+
+	/**
+	 * Sets the revisions written into the footer.
+	 *
+	 * @param baseRevision The revision the new '.ipf' file is based on.
+	 * @param revision The revision of the new '.ipf' file.
+	 */
+	public void setRevisions(long baseRevision, long revision) {
+		this.baseRevision = baseRevision;
+		this.revision = revision;
+	}
+}
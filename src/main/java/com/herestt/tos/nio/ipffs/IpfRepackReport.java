@@ -0,0 +1,74 @@
+package com.herestt.tos.nio.ipffs;
+
+import java.time.Duration;
+
+/**
+ * Describes the outcome of a repacking.
+ *
+ * @author Herestt
+ *
+ */
+public class IpfRepackReport {
+
+	/** The count of files copied without being recompressed. */
+	private final int copiedCount;
+
+	/** The count of files whose content has been deflated. */
+	private final int deflatedCount;
+
+	/** The size of the new '.ipf' file. */
+	private final long size;
+
+	/** The size of the source '.ipf' files. */
+	private final long sourceSize;
+
+	/** The duration of the repacking, in nanoseconds. */
+	private final long elapsedNanos;
+
+	protected IpfRepackReport(int copiedCount, int deflatedCount, long size, long sourceSize, long elapsedNanos) {
+		this.copiedCount = copiedCount;
+		this.deflatedCount = deflatedCount;
+		this.size = size;
+		this.sourceSize = sourceSize;
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	public int getFileCount() {
+		return copiedCount + deflatedCount;
+	}
+
+	public int getCopiedCount() {
+		return copiedCount;
+	}
+
+	public int getDeflatedCount() {
+		return deflatedCount;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public long getSourceSize() {
+		return sourceSize;
+	}
+
+	/**
+	 * Gets the count of bytes saved by the repacking.
+	 *
+	 * @return the reclaimed size, negative if the new '.ipf' file is larger.
+	 */
+	public long getReclaimedSize() {
+		return sourceSize - size;
+	}
+
+	public Duration getElapsedTime() {
+		return Duration.ofNanos(elapsedNanos);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d files (%d copied, %d deflated), %d -> %d bytes in %d ms",
+				getFileCount(), copiedCount, deflatedCount, sourceSize, size, elapsedNanos / 1000000);
+	}
+}
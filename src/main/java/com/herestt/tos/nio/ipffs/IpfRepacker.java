@@ -0,0 +1,215 @@
+package com.herestt.tos.nio.ipffs;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.CRC32;
+
+/**
+ * Writes the files of an IPF file system into a new, compact '.ipf' file.
+ *
+ * <p>The new '.ipf' file only holds the current version of each file : the contents left behind
+ * by replaced or deleted files aren't copied, and the files of an {@link IpfOverlayFileSystem}
+ * are merged into a single '.ipf' file.</p>
+ *
+ * <p>The compressed content of the unchanged files is copied byte for byte, without being inflated
+ * nor recompressed. Only the contents given as replacements by the {@link IpfRepackOptions} are
+ * deflated, in parallel, while the unchanged ones are being copied. At most 16 replacements are
+ * read and deflated ahead of their writing, so that the memory used doesn't grow with their count.</p>
+ *
+ * <p>The files are laid out in the order given by the options first, then directory by directory,
+ * so that reading the files of a directory, or the files needed at once, doesn't seek through the
+ * whole '.ipf' file.</p>
+ *
+ * @author Herestt
+ *
+ */
+public class IpfRepacker {
+
+	/** The maximum count of replacements deflated ahead of their writing. */
+	private static final int WINDOW = 16;
+
+	private final IpfFileSystem ipffs;
+	private final Path target;
+	private final IpfRepackOptions options;
+
+	protected IpfRepacker(IpfFileSystem ipffs, Path target, IpfRepackOptions options) {
+		this.ipffs = ipffs;
+		this.target = target;
+		this.options = options;
+	}
+
+	/**
+	 * Runs the repacking.
+	 *
+	 * @return the repacking report.
+	 *
+	 * @throws IOException - if an I/O error occurs; the new '.ipf' file is then deleted.
+	 */
+	protected IpfRepackReport run() throws IOException {
+		long start = System.nanoTime();
+		IpfFileTable table = ipffs.getTable();
+		Map<String, Path> replacements = options.getReplacements();
+		List<String> layout = layout(table, replacements.keySet());
+		List<String> replaced = new ArrayList<>(replacements.size());
+		for(String path : layout)
+			if(replacements.containsKey(path))
+				replaced.add(path);
+		String defaultFsName = table.size() > 0 ? table.getFsName(0) : target.getFileName().toString();
+		IpfFileTable packed = new IpfFileTable(layout.size());
+		Map<IpfFileSystem, FileChannel> sources = new IdentityHashMap<>();
+		Deque<CompletableFuture<Deflated>> pending = new ArrayDeque<>();
+		int submitted = 0;
+		int copiedCount = 0;
+		long sourceSize = 0;
+		boolean finished = false;
+		IpfArchiveWriter writer = IpfArchiveWriter.create(target);
+		try {
+			long[] revisions = revisions();
+			writer.setRevisions(revisions[0], revisions[1]);
+			while(submitted < replaced.size() && pending.size() < WINDOW)
+				pending.add(deflateAsync(replacements.get(replaced.get(submitted++))));
+			for(String path : layout) {
+				int i = table.indexOf(path);
+				String fsName = i >= 0 ? table.getFsName(i) : defaultFsName;
+				if(replacements.containsKey(path)) {
+					Deflated content = join(pending.poll());
+					if(submitted < replaced.size())
+						pending.add(deflateAsync(replacements.get(replaced.get(submitted++))));
+					packed.put(writer.write(path, fsName, content.compressed, content.crc, content.size));
+					continue;
+				}
+				IpfFileAttributes attrs = table.getAttributes(i);
+				IpfFileSystem owner = ipffs.owner(attrs);
+				FileChannel source = sources.get(owner);
+				if(source == null) {
+					source = FileChannel.open(owner.getFileSystemPath(), StandardOpenOption.READ);
+					sources.put(owner, source);
+					sourceSize += source.size();
+				}
+				packed.put(writer.transfer(path, fsName, source, attrs));
+				copiedCount++;
+			}
+			writer.finish(packed);
+			finished = true;
+		} finally {
+			for(CompletableFuture<Deflated> future : pending)
+				future.cancel(false);
+			writer.close();
+			for(FileChannel source : sources.values())
+				source.close();
+			if(!finished)
+				Files.deleteIfExists(target);
+		}
+		return new IpfRepackReport(copiedCount, replaced.size(), Files.size(target), sourceSize,
+				System.nanoTime() - start);
+	}
+
+	/**
+	 * Reads and deflates a replaced content on the executor of the options.
+	 */
+	private CompletableFuture<Deflated> deflateAsync(Path content) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return deflate(content);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}, options.getExecutor());
+	}
+
+	/**
+	 * Orders the files : first the ones given by the options, then the other ones directory by directory.
+	 */
+	private List<String> layout(IpfFileTable table, Set<String> replaced) {
+		Set<String> layout = new LinkedHashSet<>();
+		for(String path : options.getOrder()) {
+			if(path.startsWith("/"))
+				path = path.substring(1);
+			if(table.indexOf(path) >= 0 || replaced.contains(path))
+				layout.add(path);
+		}
+		List<String> others = new ArrayList<>(table.size() + replaced.size());
+		for(int i = 0; i < table.size(); i++)
+			others.add(table.getPath(i));
+		for(String path : replaced)
+			if(table.indexOf(path) < 0)
+				others.add(path);
+		others.sort(Comparator.comparing(IpfRepacker::parentOf).thenComparing(Comparator.naturalOrder()));
+		layout.addAll(others);
+		return new ArrayList<>(layout);
+	}
+
+	private static String parentOf(String path) {
+		int index = path.lastIndexOf('/');
+		return index < 0 ? "" : path.substring(0, index);
+	}
+
+	/**
+	 * Gets the revisions to write, from the options or from the source '.ipf' files.
+	 */
+	private long[] revisions() {
+		if(options.getRevision() >= 0)
+			return new long[] { Math.max(0, options.getBaseRevision()), options.getRevision() };
+		long baseRevision = Long.MAX_VALUE;
+		long revision = 0;
+		for(FileStore store : ipffs.getFileStores()) {
+			IpfFileStore ipfStore = (IpfFileStore) store;
+			baseRevision = Math.min(baseRevision, ipfStore.getBaseRevision());
+			revision = Math.max(revision, ipfStore.getRevision());
+		}
+		return new long[] { baseRevision == Long.MAX_VALUE ? 0 : baseRevision, revision };
+	}
+
+	/**
+	 * Reads and deflates a replaced content.
+	 */
+	private Deflated deflate(Path path) throws IOException {
+		ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(path));
+		CRC32 crc = new CRC32();
+		crc.update(content.duplicate());
+		return new Deflated(IpfArchiveWriter.deflate(content, options.getLevel()), crc.getValue(), content.remaining());
+	}
+
+	private static Deflated join(CompletableFuture<Deflated> future) throws IOException {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if(e.getCause() instanceof UncheckedIOException)
+				throw ((UncheckedIOException) e.getCause()).getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * A content deflated ahead of its writing.
+	 */
+	private static class Deflated {
+
+		private final ByteBuffer compressed;
+		private final long crc;
+		private final long size;
+
+		private Deflated(ByteBuffer compressed, long crc, long size) {
+			this.compressed = compressed;
+			this.crc = crc;
+			this.size = size;
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package com.herestt.tos.nio.ipffs;
+
+import java.util.Arrays;
+
+/**
+ * The seek points of the compressed content of a stored file.
+ *
+ * <p>Each checkpoint describes the state of an {@link IpfRawInflater} at a deflate block boundary :
+ * 	<ul>
+ * 		<li>the bit position of the block into the compressed content;</li>
+ * 		<li>the position of the block into the inflated content;</li>
+ * 		<li>the last 32KB inflated before the block, which later blocks can refer to.</li>
+ * 	</ul>
+ * </p>
+ *
+ * <p>Checkpoints are recorded during the first pass over the content, every <code>spacing</code>
+ * inflated bytes at least. Once the end of the content has been reached, the index is complete and
+ * is cached by the {@link IpfFileSystem}, so that any later channel can resume near any position.</p>
+ *
+ * <p>Each checkpoint costs up to 32KB of memory, so the spacing should be chosen accordingly.</p>
+ *
+ * @author Herestt
+ *
+ */
+public class IpfSeekIndex {
+
+	/** The minimal count of inflated bytes between two checkpoints. */
+	private final long spacing;
+
+	private int count = 0;
+	private long[] bitPositions = new long[8];
+	private long[] positions = new long[8];
+	private byte[][] windows = new byte[8][];
+
+	/** Determines whether the checkpoints cover the whole content. */
+	private volatile boolean complete = false;
+
+	protected IpfSeekIndex(long spacing) {
+		this.spacing = Math.max(spacing, IpfRawInflater.WINDOW_SIZE);
+	}
+
+	/**
+	 * Gets the position from which the next checkpoint should be recorded.
+	 *
+	 * @return the position into the inflated content.
+	 */
+	protected synchronized long getNextPosition() {
+		return count == 0 ? 0 : positions[count - 1] + spacing;
+	}
+
+	/**
+	 * Adds a checkpoint.
+	 *
+	 * Checkpoints must be added by increasing positions.
+	 *
+	 * @param bitPosition The bit position of the block into the compressed content.
+	 * @param position The position of the block into the inflated content.
+	 * @param window The last inflated bytes, oldest first.
+	 */
+	protected synchronized void add(long bitPosition, long position, byte[] window) {
+		if(count > 0 && position <= positions[count - 1])
+			return;
+		if(count == positions.length) {
+			bitPositions = Arrays.copyOf(bitPositions, count * 2);
+			positions = Arrays.copyOf(positions, count * 2);
+			windows = Arrays.copyOf(windows, count * 2);
+		}
+		bitPositions[count] = bitPosition;
+		positions[count] = position;
+		windows[count] = window;
+		count++;
+	}
+
+	/**
+	 * Marks the index as covering the whole content.
+	 */
+	protected void complete() {
+		complete = true;
+	}
+
+	/**
+	 * Determines whether the checkpoints cover the whole content.
+	 *
+	 * @return <code>true</code> if the index is complete.
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * Gets the count of checkpoints.
+	 *
+	 * @return the checkpoint count.
+	 */
+	public synchronized int size() {
+		return count;
+	}
+
+	/**
+	 * Finds the last checkpoint preceding a position.
+	 *
+	 * @param position The position into the inflated content.
+	 * @return the checkpoint, or <code>-1</code> if there isn't any.
+	 */
+	public synchronized int floor(long position) {
+		int i = Arrays.binarySearch(positions, 0, count, position);
+		return i >= 0 ? i : -i - 2;
+	}
+
+	protected synchronized long getBitPosition(int checkpoint) {
+		return bitPositions[checkpoint];
+	}
+
+	protected synchronized long getPosition(int checkpoint) {
+		return positions[checkpoint];
+	}
+
+	protected synchronized byte[] getWindow(int checkpoint) {
+		return windows[checkpoint];
+	}
+}
@@ -24,6 +24,9 @@ import java.util.Set;
  * 
  * <p><b>Notice:</b> By default this channel is opened with the {@link StandardOpenOption#READ} option.</p>
  * 
+ * <p>When the channel is connected to a stored file, the content of the temporary file is stored
+ * into its file system when the channel is closed, provided that it has been modified.</p>
+ * 
  * @author Herestt
  *
  */
@@ -34,6 +37,12 @@ public class IpfSeekableByteChannelImpl implements SeekableByteChannel {
 	private FileChannel channel;
 	private boolean writable = false;
 	
+	/** The stored file the content is written to on close, or <code>null</code>. */
+	private IpfPath target;
+	
+	/** Determines whether the content has to be written to the stored file. */
+	private boolean modified = false;
+	
 	public IpfSeekableByteChannelImpl(Path path, Set<? extends OpenOption> options)
 			throws IOException {
 		checkPath(path);
@@ -41,6 +50,26 @@ public class IpfSeekableByteChannelImpl implements SeekableByteChannel {
 		file = path.toFile();
 		raf = new RandomAccessFile(file, mode);
 		channel = raf.getChannel();
+		if(options.contains(StandardOpenOption.APPEND))
+			channel.position(channel.size());
+	}
+	
+	/**
+	 * Creates a channel whose content is stored into a file system when it is closed.
+	 * 
+	 * @param path The temporary file holding the content.
+	 * @param options The options the channel is opened with.
+	 * @param target The stored file to write the content to.
+	 * @param modified <code>true</code> if the stored file doesn't exist yet, or is truncated, so that
+	 * it is written even if nothing is written through the channel.
+	 * 
+	 * @throws IOException - if an I/O error occurs.
+	 */
+	protected IpfSeekableByteChannelImpl(Path path, Set<? extends OpenOption> options,
+			IpfPath target, boolean modified) throws IOException {
+		this(path, options);
+		this.target = target;
+		this.modified = modified;
 	}
 	
 	private void checkPath(Path path) throws FileNotFoundException {
@@ -72,12 +101,19 @@ public class IpfSeekableByteChannelImpl implements SeekableByteChannel {
 
 	@Override
 	public void close() throws IOException {
-		if(channel != null)
+		if(!channel.isOpen())
+			return;
+		try {
 			channel.close();
-		if(raf != null)
 			raf.close();
-		if(file != null)
+			if(target != null) {
+				target.getFileSystem().unregister(this);
+				if(writable && modified)
+					target.getFileSystem().write(target, file.toPath());
+			}
+		} finally {
 			file.delete();
+		}
 	}
 
 	@Override
@@ -87,8 +123,10 @@ public class IpfSeekableByteChannelImpl implements SeekableByteChannel {
 
 	@Override
 	public int write(ByteBuffer src) throws IOException {
-		if(writable)
+		if(writable) {
+			modified = true;
 			return channel.write(src);
+		}
 		throw new UnsupportedOperationException();
 	}
 
@@ -109,6 +147,8 @@ public class IpfSeekableByteChannelImpl implements SeekableByteChannel {
 
 	@Override
 	public SeekableByteChannel truncate(long size) throws IOException {
+		if(writable && size < channel.size())
+			modified = true;
 		return channel.truncate(size);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,131 @@
+package com.herestt.tos.nio.ipffs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Checks the CRC-32 of every file of an IPF file system.
+ *
+ * <p>The files are read in batches by increasing offset, as described by {@link IpfBulkOperation}.
+ * Each content is inflated by windows of {@link #WINDOW_SIZE} bytes that only feed the checksum,
+ * so that the memory used doesn't depend on the size of the files.</p>
+ *
+ * <p>Corrupted files don't stop the verification : they are collected by the report, while
+ * I/O errors on the '.ipf' file abort it.</p>
+ *
+ * @author Herestt
+ *
+ */
+public class IpfVerifier extends IpfBulkOperation {
+
+	/** The maximum size of the compressed content read at once for a batch of files. */
+	private static final int BATCH_SIZE = 8 * 1024 * 1024;
+
+	/** The size of the inflated windows. */
+	private static final int WINDOW_SIZE = 64 * 1024;
+
+	/** The windows, one per thread. */
+	private final ThreadLocal<ByteBuffer> windows = ThreadLocal.withInitial(() -> ByteBuffer.allocate(WINDOW_SIZE));
+
+	/** The reasons of the failures, keyed by file path. */
+	private final Map<String, String> failures = new ConcurrentSkipListMap<>();
+
+	private final AtomicInteger fileCount = new AtomicInteger();
+	private final LongAdder size = new LongAdder();
+
+	protected IpfVerifier(IpfFileSystem ipffs, Executor executor) {
+		super(ipffs, executor, BATCH_SIZE);
+	}
+
+	/**
+	 * Runs the verification.
+	 *
+	 * @return the verification report.
+	 *
+	 * @throws IOException - if the '.ipf' file couldn't be read.
+	 */
+	protected IpfVerifyReport run() throws IOException {
+		long start = System.nanoTime();
+		runAll();
+		return new IpfVerifyReport(fileCount.get(), size.sum(), failures, System.nanoTime() - start);
+	}
+
+	@Override
+	protected void process(IpfFileSystem owner, IpfFileAttributes attrs, ByteBuffer compressed) throws IOException {
+		ByteBuffer window = windows.get();
+		CRC32 crc = new CRC32();
+		long total = 0;
+		Inflater inflater = owner.getInflaterPool().borrow();
+		try {
+			inflater.setInput(compressed);
+			while(!inflater.finished()) {
+				window.clear();
+				int count = inflater.inflate(window);
+				if(count == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+					fail(attrs, "Truncated content");
+					return;
+				}
+				window.flip();
+				crc.update(window);
+				total += count;
+			}
+		} catch (DataFormatException e) {
+			fail(attrs, "Invalid content: " + e.getMessage());
+			return;
+		} finally {
+			owner.getInflaterPool().release(inflater);
+		}
+		check(attrs, total, crc.getValue());
+	}
+
+	@Override
+	protected void process(IpfFileSystem owner, IpfFileAttributes attrs) throws IOException {
+		ByteBuffer window = windows.get();
+		CRC32 crc = new CRC32();
+		long total = 0;
+		try(IpfInflaterChannel src = new IpfInflaterChannel(owner, attrs)) {
+			window.clear();
+			int count;
+			while((count = src.read(window)) > 0) {
+				window.flip();
+				crc.update(window);
+				total += count;
+				window.clear();
+			}
+		} catch (ZipException e) {
+			fail(attrs, e.getMessage());
+			return;
+		} catch (IOException e) {
+			if(!(e.getCause() instanceof DataFormatException))
+				throw e;
+			fail(attrs, "Invalid content: " + e.getCause().getMessage());
+			return;
+		}
+		check(attrs, total, crc.getValue());
+	}
+
+	private void check(IpfFileAttributes attrs, long total, long crc) {
+		if(total != attrs.size())
+			fail(attrs, "Invalid size (expected " + attrs.size() + ", got " + total + ")");
+		else if(crc != attrs.getCrc())
+			fail(attrs, String.format("Invalid CRC-32 (expected %08x, got %08x)", attrs.getCrc(), crc));
+		else {
+			fileCount.incrementAndGet();
+			size.add(total);
+		}
+	}
+
+	private void fail(IpfFileAttributes attrs, String reason) {
+		fileCount.incrementAndGet();
+		failures.put(attrs.getPath(), reason);
+	}
+}
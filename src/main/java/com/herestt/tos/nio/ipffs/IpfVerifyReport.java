@@ -0,0 +1,79 @@
+package com.herestt.tos.nio.ipffs;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Describes the outcome of a CRC-32 verification.
+ *
+ * @author Herestt
+ *
+ */
+public class IpfVerifyReport {
+
+	/** The count of checked files. */
+	private final int fileCount;
+
+	/** The count of inflated bytes that matched their checksum. */
+	private final long size;
+
+	/** The reasons of the failures, keyed by file path. */
+	private final Map<String, String> failures;
+
+	/** The duration of the verification, in nanoseconds. */
+	private final long elapsedNanos;
+
+	protected IpfVerifyReport(int fileCount, long size, Map<String, String> failures, long elapsedNanos) {
+		this.fileCount = fileCount;
+		this.size = size;
+		this.failures = Collections.unmodifiableMap(new TreeMap<>(failures));
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	public int getFileCount() {
+		return fileCount;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Gets the corrupted files.
+	 *
+	 * @return the reason of each failure, keyed by file path and sorted by path.
+	 */
+	public Map<String, String> getFailures() {
+		return failures;
+	}
+
+	/**
+	 * Determines whether every file matched its checksum.
+	 *
+	 * @return <code>true</code> if no file is corrupted.
+	 */
+	public boolean isValid() {
+		return failures.isEmpty();
+	}
+
+	public Duration getElapsedTime() {
+		return Duration.ofNanos(elapsedNanos);
+	}
+
+	/**
+	 * Gets the count of bytes checked per second.
+	 *
+	 * @return the throughput, in bytes per second.
+	 */
+	public double getThroughput() {
+		return elapsedNanos == 0 ? 0 : size * 1e9 / elapsedNanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d files, %d failures, %d bytes in %d ms (%.1f MB/s)",
+				fileCount, failures.size(), size, elapsedNanos / 1000000, getThroughput() / (1024 * 1024));
+	}
+}
@@ -0,0 +1,218 @@
+package com.herestt.tos.nio.ipffs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Modifies '.ipf' files in place through writable file systems, then mounts them again.
+ *
+ * @author Herestt
+ *
+ */
+public class IpfFileSystemTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final IpfFileSystemProvider provider = new IpfFileSystemProvider();
+
+	private final Random random = new Random(42);
+
+	@Test
+	public void storesWrittenDeletedAndMovedFiles() throws IOException {
+		Path archive = generate(300, 2 << 20);
+		Map<String, byte[]> expected = contents(archive);
+		List<String> paths = new ArrayList<>(expected.keySet());
+		byte[] added = randomBytes(200 * 1024);
+		byte[] replaced = "replaced".getBytes();
+		String deleted = paths.get(1);
+		String moved = paths.get(2);
+		String dir = directoryOf(paths.subList(3, paths.size()));
+		try(IpfFileSystem fs = mount(archive, true)) {
+			Files.write(fs.getPath("/added/new.bin"), added);
+			expected.put("/added/new.bin", added);
+			Files.write(fs.getPath(paths.get(0)), replaced);
+			expected.put(paths.get(0), replaced);
+			Files.delete(fs.getPath(deleted));
+			expected.remove(deleted);
+			Files.move(fs.getPath(moved), fs.getPath("/moved/file.bin"));
+			expected.put("/moved/file.bin", expected.remove(moved));
+			Files.move(fs.getPath(dir), fs.getPath("/renamed"));
+			for(String path : new ArrayList<>(expected.keySet()))
+				if(path.startsWith(dir + "/"))
+					expected.put("/renamed" + path.substring(dir.length()), expected.remove(path));
+			assertContents(expected, fs);
+			assertMissing(fs, deleted);
+			assertMissing(fs, moved);
+		}
+		try(IpfFileSystem fs = mount(archive, false)) {
+			assertContents(expected, fs);
+			assertMissing(fs, deleted);
+			IpfVerifyReport report = fs.verify(null);
+			assertTrue(report.getFailures().toString(), report.isValid());
+			assertEquals(expected.size(), report.getFileCount());
+		}
+	}
+
+	@Test
+	public void keepsFormerArchiveUntilClosed() throws IOException {
+		Path archive = generate(100, 1 << 20);
+		byte[] original = Files.readAllBytes(archive);
+		try(IpfFileSystem fs = mount(archive, true)) {
+			Files.write(fs.getPath("/added.bin"), randomBytes(64 * 1024));
+			Files.delete(fs.getPath(contents(fs).keySet().iterator().next()));
+			byte[] current = Files.readAllBytes(archive);
+			assertTrue(current.length > original.length);
+			byte[] prefix = new byte[original.length];
+			System.arraycopy(current, 0, prefix, 0, prefix.length);
+			assertArrayEquals(original, prefix);
+		}
+	}
+
+	@Test
+	public void restoresFormerArchiveWhenFinishFails() throws IOException {
+		// A full '.ipf' file can't hold one more file : its new file list can't be written.
+		Path archive = generate(0xFFFF, 1 << 20);
+		byte[] original = Files.readAllBytes(archive);
+		IpfFileSystem fs = mount(archive, true);
+		Files.write(fs.getPath("/one-too-many.bin"), randomBytes(64 * 1024));
+		try {
+			fs.close();
+			fail("The file list was written.");
+		} catch (IOException e) {
+			// Expected.
+		}
+		assertFalse(fs.isOpen());
+		assertArrayEquals(original, Files.readAllBytes(archive));
+		try(IpfFileSystem remounted = mount(archive, false)) {
+			assertTrue(remounted.verify(null).isValid());
+		}
+	}
+
+	@Test
+	public void directoryStreamsIgnoreLaterChanges() throws IOException {
+		Path archive = generate(300, 1 << 20);
+		try(IpfFileSystem fs = mount(archive, true)) {
+			List<String> paths = new ArrayList<>(contents(fs).keySet());
+			String dir = directoryOf(paths);
+			String deleted = null;
+			for(String path : paths)
+				if(parentOf(path).equals(dir))
+					deleted = path;
+			List<String> expected = list(fs, dir);
+			List<String> actual = new ArrayList<>();
+			try(DirectoryStream<Path> stream = Files.newDirectoryStream(fs.getPath(dir))) {
+				Iterator<Path> it = stream.iterator();
+				assertTrue(it.hasNext());
+				actual.add(it.next().toString());
+				Files.delete(fs.getPath(deleted));
+				Files.write(fs.getPath(dir + "/added.bin"), randomBytes(100));
+				while(it.hasNext())
+					actual.add(it.next().toString());
+			}
+			assertEquals(expected, actual);
+		}
+	}
+
+	private Path generate(int entryCount, long totalSize) throws IOException {
+		Path archive = folder.getRoot().toPath().resolve("test.ipf");
+		Files.deleteIfExists(archive);
+		IpfArchiveGenerator generator = new IpfArchiveGenerator();
+		generator.setEntryCount(entryCount);
+		generator.setTotalSize(totalSize);
+		generator.generate(archive);
+		return archive;
+	}
+
+	private IpfFileSystem mount(Path archive, boolean writable) throws IOException {
+		Map<String, Object> env = new HashMap<>();
+		env.put(IpfFileSystem.ENV_WRITABLE, writable);
+		env.put(IpfFileSystem.ENV_VERIFY_CRC, true);
+		return provider.getOrNewFileSystem(archive, env);
+	}
+
+	private Map<String, byte[]> contents(Path archive) throws IOException {
+		try(IpfFileSystem fs = mount(archive, false)) {
+			return contents(fs);
+		}
+	}
+
+	/**
+	 * Reads every stored file, keyed by its absolute path.
+	 */
+	private static Map<String, byte[]> contents(IpfFileSystem fs) throws IOException {
+		Map<String, byte[]> contents = new TreeMap<>();
+		try(Stream<Path> files = Files.walk(fs.getPath("/"))) {
+			for(Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator)
+				contents.put(file.toString(), Files.readAllBytes(file));
+		}
+		return contents;
+	}
+
+	private static void assertContents(Map<String, byte[]> expected, IpfFileSystem fs) throws IOException {
+		Map<String, byte[]> actual = contents(fs);
+		assertEquals(expected.keySet(), actual.keySet());
+		for(Map.Entry<String, byte[]> entry : expected.entrySet())
+			assertArrayEquals(entry.getKey(), entry.getValue(), actual.get(entry.getKey()));
+	}
+
+	private static void assertMissing(IpfFileSystem fs, String path) throws IOException {
+		try {
+			Files.readAttributes(fs.getPath(path), IpfFileAttributes.class);
+			fail(path + " still exists.");
+		} catch (FileNotFoundException e) {
+			// Expected.
+		}
+	}
+
+	private static List<String> list(IpfFileSystem fs, String dir) throws IOException {
+		List<String> children = new ArrayList<>();
+		try(DirectoryStream<Path> stream = Files.newDirectoryStream(fs.getPath(dir))) {
+			for(Path child : stream)
+				children.add(child.toString());
+		}
+		return children;
+	}
+
+	private static String parentOf(String path) {
+		return path.substring(0, path.lastIndexOf('/'));
+	}
+
+	/**
+	 * Gets the first directory, other than the root, holding at least two of the files.
+	 */
+	private static String directoryOf(List<String> paths) {
+		Map<String, Integer> counts = new HashMap<>();
+		for(String path : paths)
+			if(counts.merge(parentOf(path), 1, Integer::sum) == 2 && !parentOf(path).isEmpty())
+				return parentOf(path);
+		throw new AssertionError("No directory holds two files.");
+	}
+
+	private byte[] randomBytes(int size) {
+		byte[] bytes = new byte[size];
+		random.nextBytes(bytes);
+		return bytes;
+	}
+}
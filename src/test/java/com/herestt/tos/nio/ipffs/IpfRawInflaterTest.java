@@ -0,0 +1,224 @@
+package com.herestt.tos.nio.ipffs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+
+import org.junit.Test;
+
+/**
+ * Round-trips the output of {@link Deflater} through {@link IpfRawInflater}.
+ *
+ * <p>Each content is inflated from its beginning while a {@link IpfSeekIndex} records the
+ * checkpoints, then again from every checkpoint of that index.</p>
+ *
+ * @author Herestt
+ *
+ */
+public class IpfRawInflaterTest {
+
+	/** The block types, as read from the header of the first block. */
+	private static final int STORED = 0;
+	private static final int FIXED = 1;
+	private static final int DYNAMIC = 2;
+
+	private final Random random = new Random(42);
+
+	@Test
+	public void inflatesStoredBlocks() throws Exception {
+		byte[] content = randomBytes(300 * 1024);
+		byte[] compressed = deflate(content, 0, Deflater.DEFAULT_STRATEGY);
+		assertEquals(STORED, firstBlockType(compressed));
+		assertRoundTrip(content, compressed, true);
+	}
+
+	@Test
+	public void inflatesFixedHuffmanBlocks() throws Exception {
+		// Short chunks are cheaper to encode with the fixed codes, and each flush ends a block.
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		byte[] buffer = new byte[1024];
+		for(int i = 0; i < 2000; i++) {
+			byte[] chunk = text(64);
+			content.write(chunk);
+			deflater.setInput(chunk);
+			int count;
+			while((count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH)) > 0)
+				compressed.write(buffer, 0, count);
+		}
+		deflater.finish();
+		while(!deflater.finished())
+			compressed.write(buffer, 0, deflater.deflate(buffer));
+		deflater.end();
+		assertEquals(FIXED, firstBlockType(compressed.toByteArray()));
+		assertRoundTrip(content.toByteArray(), compressed.toByteArray(), true);
+	}
+
+	@Test
+	public void inflatesDynamicHuffmanBlocks() throws Exception {
+		for(int level = 1; level <= 9; level++) {
+			byte[] content = concat(text(64 * 1024), mixed(448 * 1024));
+			byte[] compressed = deflate(content, level, Deflater.DEFAULT_STRATEGY);
+			assertEquals(DYNAMIC, firstBlockType(compressed));
+			assertRoundTrip(content, compressed, true);
+		}
+	}
+
+	@Test
+	public void inflatesHuffmanOnlyBlocks() throws Exception {
+		byte[] content = text(256 * 1024);
+		assertRoundTrip(content, deflate(content, Deflater.DEFAULT_COMPRESSION, Deflater.HUFFMAN_ONLY), true);
+	}
+
+	@Test
+	public void inflatesSmallContents() throws Exception {
+		for(int size : new int[] { 0, 1, 2, 257, 4096 })
+			for(int level = 0; level <= 9; level++) {
+				byte[] content = text(size);
+				assertRoundTrip(content, deflate(content, level, Deflater.DEFAULT_STRATEGY), false);
+			}
+	}
+
+	@Test
+	public void inflatesFromChannel() throws Exception {
+		byte[] content = mixed(256 * 1024);
+		byte[] compressed = deflate(content, 6, Deflater.DEFAULT_STRATEGY);
+		Path file = Files.createTempFile("ipf", ".bin");
+		try {
+			// The content is read past an unrelated prefix, by blocks smaller than itself.
+			Files.write(file, concat(randomBytes(100), compressed, randomBytes(100)));
+			try(FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+				IpfSeekIndex index = new IpfSeekIndex(IpfRawInflater.WINDOW_SIZE);
+				IpfRawInflater inflater = new IpfRawInflater(fc, 100, compressed.length);
+				inflater.setIndex(index);
+				assertArrayEquals(content, inflateAll(inflater));
+				assertTrue(index.size() > 1);
+				for(int k = 0; k < index.size(); k++) {
+					IpfRawInflater resumed = new IpfRawInflater(fc, 100, compressed.length);
+					resumed.resume(index, k);
+					assertArrayEquals(tail(content, index.getPosition(k)), inflateAll(resumed));
+				}
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test(expected = DataFormatException.class)
+	public void rejectsTruncatedContents() throws Exception {
+		byte[] compressed = deflate(mixed(64 * 1024), 6, Deflater.DEFAULT_STRATEGY);
+		inflateAll(new IpfRawInflater(ByteBuffer.wrap(Arrays.copyOf(compressed, compressed.length / 2))));
+	}
+
+	@Test(expected = DataFormatException.class)
+	public void rejectsInvalidBlockTypes() throws Exception {
+		inflateAll(new IpfRawInflater(ByteBuffer.wrap(new byte[] { 0x07, 0x00 })));
+	}
+
+	/**
+	 * Inflates a content from its beginning, then from each checkpoint met on the way.
+	 */
+	private static void assertRoundTrip(byte[] content, byte[] compressed, boolean checkpointed)
+			throws IOException, DataFormatException {
+		IpfSeekIndex index = new IpfSeekIndex(IpfRawInflater.WINDOW_SIZE);
+		IpfRawInflater inflater = new IpfRawInflater(ByteBuffer.wrap(compressed));
+		inflater.setIndex(index);
+		assertArrayEquals(content, inflateAll(inflater));
+		assertTrue(inflater.finished());
+		assertEquals(content.length, inflater.getPosition());
+		if(checkpointed)
+			assertTrue("Too few checkpoints : " + index.size(), index.size() > 1);
+		for(int k = 0; k < index.size(); k++) {
+			IpfRawInflater resumed = new IpfRawInflater(ByteBuffer.wrap(compressed));
+			resumed.resume(index, k);
+			assertEquals(index.getPosition(k), resumed.getPosition());
+			assertArrayEquals("Checkpoint " + k, tail(content, index.getPosition(k)), inflateAll(resumed));
+		}
+	}
+
+	/**
+	 * Inflates the rest of a content by reads of varying sizes.
+	 */
+	private static byte[] inflateAll(IpfRawInflater inflater) throws IOException, DataFormatException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[7919];
+		int len = 1;
+		int count;
+		while((count = inflater.inflate(buffer, 0, len)) != -1) {
+			out.write(buffer, 0, count);
+			len = len * 3 % buffer.length + 1;
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] deflate(byte[] content, int level, int strategy) {
+		Deflater deflater = new Deflater(level, true);
+		deflater.setStrategy(strategy);
+		deflater.setInput(content);
+		deflater.finish();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[64 * 1024];
+		while(!deflater.finished())
+			out.write(buffer, 0, deflater.deflate(buffer));
+		deflater.end();
+		return out.toByteArray();
+	}
+
+	private static int firstBlockType(byte[] compressed) {
+		return (compressed[0] >> 1) & 3;
+	}
+
+	private static byte[] tail(byte[] content, long from) {
+		return Arrays.copyOfRange(content, (int) from, content.length);
+	}
+
+	private static byte[] concat(byte[]... parts) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for(byte[] part : parts)
+			out.write(part, 0, part.length);
+		return out.toByteArray();
+	}
+
+	private byte[] randomBytes(int size) {
+		byte[] bytes = new byte[size];
+		random.nextBytes(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Generates words drawn from a small vocabulary, so that the content has both repeated
+	 * strings and a skewed byte distribution.
+	 */
+	private byte[] text(int size) {
+		String[] words = { "tree ", "of ", "savior ", "ipf ", "archive ", "klaipeda ", "orsha ", "\n" };
+		StringBuilder sb = new StringBuilder(size + 16);
+		while(sb.length() < size)
+			sb.append(words[random.nextInt(words.length)]);
+		return Arrays.copyOf(sb.toString().getBytes(), size);
+	}
+
+	/**
+	 * Alternates text and random regions, so that the deflater emits several kinds of blocks.
+	 */
+	private byte[] mixed(int size) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		while(out.size() < size) {
+			byte[] region = random.nextBoolean() ? text(1 + random.nextInt(40000)) : randomBytes(1 + random.nextInt(20000));
+			out.write(region, 0, region.length);
+		}
+		return Arrays.copyOf(out.toByteArray(), size);
+	}
+}